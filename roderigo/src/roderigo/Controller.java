@@ -7,6 +7,10 @@ import java.util.List;
 import roderigo.ai.AIPlayer;
 import roderigo.ai.AbortException;
 import roderigo.ai.AlphaBetaPlayer;
+import roderigo.ai.Analyzer;
+import roderigo.ai.MonteCarloPlayer;
+import roderigo.ai.OpeningBook;
+import roderigo.ai.SearchStatistics;
 import roderigo.ai.genetic.Genome;
 import roderigo.struct.Board;
 import roderigo.struct.BoardCell;
@@ -50,6 +54,76 @@ public class Controller {
 	 */
 	private int searchDepth = 5;
 	
+	/**
+	 * Search budget for each move (zero means no limit):
+	 * time in milliseconds, and number of searched nodes
+	 */
+	private long searchTimeLimit = 0;
+	private long searchNodeLimit = 0;
+	
+	/**
+	 * Time limit in milliseconds for each move, which stops the search
+	 * even before the first iteration has completed (zero means no limit)
+	 */
+	private long searchHardTimeLimit = 0;
+	
+	/**
+	 * Number of threads searching each move (only AlphaBetaPlayer)
+	 */
+	private int searchThreads = Runtime.getRuntime().availableProcessors();
+	
+	/**
+	 * Opening book used by AI (only AlphaBetaPlayer), or null
+	 */
+	private OpeningBook openingBook = null;
+	
+	/**
+	 * Indicates AI will search on the opponent's time (only AlphaBetaPlayer):
+	 * after its move, it searches the position after the predicted reply
+	 */
+	private boolean pondering = false;
+	
+	/**
+	 * The pondering search: its thread and player, the predicted position,
+	 * whether the opponent has played the predicted move, and the result
+	 * (null if aborted)
+	 */
+	private Thread ponderThread = null;
+	private AlphaBetaPlayer ponderPlayer = null;
+	private long ponderHash = 0;
+	private boolean ponderHit = false;
+	private BoardCell ponderResult = null;
+	
+	/**
+	 * Indicates the moves of the human player are analyzed in background
+	 * (see <code>Analyzer</code>), with the evaluation of the AI of the same color
+	 */
+	private boolean showingAnalysis = false;
+	
+	/**
+	 * The analysis of the present position: its thread and analyzer
+	 */
+	private Thread analysisThread = null;
+	private Analyzer analyzer = null;
+	
+	/**
+	 * Forwards the progress of the analysis to the AnalysisListeners
+	 */
+	private final Analyzer.AnalysisListener analysisListener = new Analyzer.AnalysisListener() {
+		@Override public void analysisProgress(Analyzer analyzer, List<Analyzer.Line> lines) {
+			notifyAnalysisListeners_analysisProgress(lines);
+		}
+	};
+	
+	/**
+	 * Forwards the progress of the searches to the AiTaskListeners
+	 */
+	private final AlphaBetaPlayer.SearchListener searchListener = new AlphaBetaPlayer.SearchListener() {
+		@Override public void searchProgress(AlphaBetaPlayer player, SearchStatistics statistics) {
+			notifyAiTaskListeners_computationProgress(player, statistics);
+		}
+	};
+	
 	/**
 	 * The GameState object
 	 */
@@ -58,12 +132,12 @@ public class Controller {
 	/**
 	 * Black player
 	 */
-	private final AIPlayer blackPlayer;
+	private volatile AIPlayer blackPlayer;
 	
 	/**
 	 * White player
 	 */
-	private final AIPlayer whitePlayer;
+	private volatile AIPlayer whitePlayer;
 	
 	/**
 	 * Start time measurement
@@ -114,6 +188,8 @@ public class Controller {
 	 * Reset game state (i.e. start a new game).
 	 */
 	public void newGame() {
+		stopPondering();
+		stopAnalysis();
 		resetMeasureTime();
 		
 		gameState.newGame();
@@ -147,10 +223,12 @@ public class Controller {
 	public void continueGame() {
 		startMeasuringTime(getTurn());
 		
-		if(isAITurn())
+		if(isAITurn()) {
 			runAITask();
-		else
+		} else {
 			checkEndGame();
+			if(showingAnalysis) startAnalysis();
+		}
 	}
 	
 	/**
@@ -162,7 +240,11 @@ public class Controller {
 	public boolean move(BoardCell cell) {
 		BoardCellColor oldTurn = getTurn();
 		
+		stopAnalysis();
+		
 		if(gameState.move(cell)) {
+			checkPonderHit();
+			
 			long time = stopMeasuringTime(oldTurn);
 			notifyGameMoveListeners_move(cell, oldTurn, time);
 			
@@ -180,6 +262,8 @@ public class Controller {
 	 * Switch turn (i.e. force a pass)
 	 */
 	public void switchTurn() {
+		stopPondering();
+		stopAnalysis();
 		gameState.switchTurn();
 	}
 	
@@ -222,6 +306,8 @@ public class Controller {
 	 * depending on {runAiTaskInBackground} setting.
 	 */
 	private void runAITask() {
+		stopAnalysis();
+		
 		if(runAiTaskInBackground) {
 			Thread thread = new Thread() { @Override public void run() { runAITask_forReal(); } };
 			thread.start();
@@ -240,17 +326,32 @@ public class Controller {
 			
 			assert aiPlayer != null;
 			
-			if(aiPlayer instanceof AlphaBetaPlayer)
+			if(aiPlayer instanceof AlphaBetaPlayer) {
 				((AlphaBetaPlayer) aiPlayer).setMaxDepth(searchDepth);
+				((AlphaBetaPlayer) aiPlayer).setBudget(searchTimeLimit, searchNodeLimit);
+				((AlphaBetaPlayer) aiPlayer).setHardTimeLimit(searchHardTimeLimit);
+				((AlphaBetaPlayer) aiPlayer).setThreads(searchThreads);
+				((AlphaBetaPlayer) aiPlayer).setOpeningBook(openingBook);
+				((AlphaBetaPlayer) aiPlayer).setSearchListener(searchListener);
+			} else if(aiPlayer instanceof MonteCarloPlayer) {
+				((MonteCarloPlayer) aiPlayer).setBudget(searchTimeLimit, 0);
+				((MonteCarloPlayer) aiPlayer).setHardTimeLimit(searchHardTimeLimit);
+				((MonteCarloPlayer) aiPlayer).setThreads(searchThreads);
+			}
 			
 			BoardCell bestMove = null;
+			// a cancel from now on (the listeners expose the AI) stops this search:
+			aiPlayer.clearCancel();
 			notifyAiTaskListeners_computationStart(aiPlayer);
 			try {
-				bestMove = aiPlayer.getBestMove(gameState);
-				notifyAiTaskListeners_computationEnd(aiPlayer);
+				bestMove = getPonderResult(aiPlayer);
+				if(bestMove == null)
+					bestMove = aiPlayer.getBestMove(gameState);
+				notifyAiTaskListeners_computationEnd(aiPlayer, getStatistics(aiPlayer));
 			} catch(AbortException e) {
 				notifyAiTaskListeners_computationAborted(aiPlayer);
 				startTime[getTurn().ordinal()] = 0;
+				break;
 			}
 			
 			BoardCellColor oldTurn = getTurn();
@@ -270,11 +371,201 @@ public class Controller {
 					notifyGameMoveListeners_pass(oldTurn.opposite());
 				
 				startMeasuringTime(getTurn());
+				
+				if(pondering && !isAITurn() && aiPlayer instanceof AlphaBetaPlayer)
+					startPondering((AlphaBetaPlayer) aiPlayer, oldTurn);
 				continue;
 			}
 		}
 		
 		checkEndGame();
+		if(showingAnalysis && !isAITurn()) startAnalysis();
+	}
+	
+	/**
+	 * Start searching, in background, the position after the opponent's
+	 * predicted reply (if any, and if then it's the AI turn again).
+	 *
+	 * @param aiPlayer The AI which has just moved
+	 * @param color The color of the AI
+	 */
+	private synchronized void startPondering(final AlphaBetaPlayer aiPlayer, BoardCellColor color) {
+		stopPondering();
+		
+		int move = aiPlayer.getPredictedMove(gameState);
+		if(move < 0) return;
+		
+		final GameState state = new GameState(gameState);
+		state.makeMove(move, null);
+		if(state.getTurn() != color) return;
+		
+		aiPlayer.setMaxDepth(searchDepth);
+		aiPlayer.setBudget(searchTimeLimit, searchNodeLimit);
+		aiPlayer.setHardTimeLimit(searchHardTimeLimit);
+		aiPlayer.setThreads(searchThreads);
+		aiPlayer.setOpeningBook(openingBook);
+		aiPlayer.setPondering(true);
+		aiPlayer.setSearchListener(null);
+		
+		ponderPlayer = aiPlayer;
+		ponderHash = state.getHash();
+		ponderHit = false;
+		ponderResult = null;
+		ponderThread = new Thread() {
+			@Override public void run() {
+				try {
+					ponderResult = aiPlayer.getBestMove(state);
+				} catch(AbortException e) {
+					ponderResult = null;
+				}
+			}
+		};
+		ponderThread.start();
+	}
+	
+	/**
+	 * Called after a move: if it's the predicted one, the pondering search
+	 * goes on (with the normal budget, starting now), otherwise it is aborted.
+	 */
+	private synchronized void checkPonderHit() {
+		if(ponderThread == null || ponderHit) return;
+		
+		if(gameState.getHash() == ponderHash) {
+			ponderHit = true;
+			ponderPlayer.setSearchListener(searchListener);
+			ponderPlayer.ponderHit();
+		} else {
+			stopPondering();
+		}
+	}
+	
+	/**
+	 * Abort the pondering search (if any), discarding its result
+	 */
+	private synchronized void stopPondering() {
+		if(ponderThread == null) return;
+		
+		ponderPlayer.abort();
+		joinPonderThread(ponderThread, ponderPlayer);
+		resetPondering();
+	}
+	
+	/**
+	 * Wait for the end of a pondering search
+	 */
+	private static void joinPonderThread(Thread thread, AlphaBetaPlayer player) {
+		try {
+			thread.join();
+		} catch(InterruptedException e) {
+			player.abort();
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	/**
+	 * Reset the pondering state, after the end of the pondering search
+	 */
+	private synchronized void resetPondering() {
+		ponderPlayer.setPondering(false);
+		ponderThread = null;
+		ponderPlayer = null;
+		ponderHit = false;
+	}
+	
+	/**
+	 * Get the move found by the pondering search, if it has searched
+	 * the present position (otherwise the pondering search is aborted).
+	 * The search is waited for without holding the lock, so that it
+	 * can be stopped meanwhile (e.g. by <code>newGame</code>).
+	 *
+	 * @param aiPlayer The AI which has to play now
+	 * @return The move, or null if there is no pondering search for this position
+	 * @throws AbortException if the pondering search has been aborted
+	 */
+	private BoardCell getPonderResult(AIPlayer aiPlayer) throws AbortException {
+		Thread thread;
+		synchronized(this) {
+			if(ponderThread == null) return null;
+			
+			if(!ponderHit || ponderPlayer != aiPlayer || gameState.getHash() != ponderHash) {
+				stopPondering();
+				return null;
+			}
+			
+			thread = ponderThread;
+		}
+		
+		joinPonderThread(thread, (AlphaBetaPlayer) aiPlayer);
+		
+		synchronized(this) {
+			// stopped (and reset) by someone else while waiting:
+			if(ponderThread != thread) throw new AbortException();
+			
+			resetPondering();
+			if(ponderResult == null) throw new AbortException();
+			return gameState.getBoard().conformCell(ponderResult);
+		}
+	}
+	
+	/**
+	 * Start analyzing, in background, the moves of the present position
+	 * (up to the search depth, within the search time limit)
+	 */
+	private synchronized void startAnalysis() {
+		stopAnalysis();
+		
+		AIPlayer aiPlayer = getAIPlayer(getTurn());
+		if(!(aiPlayer instanceof AlphaBetaPlayer)) return;
+		
+		if(analyzer == null || analyzer.getPlayer() != aiPlayer) {
+			if(analyzer != null) analyzer.shutdown();
+			analyzer = new Analyzer((AlphaBetaPlayer) aiPlayer);
+			analyzer.setAnalysisListener(analysisListener);
+		}
+		analyzer.setMaxDepth(searchDepth);
+		analyzer.setTimeLimit(searchTimeLimit);
+		
+		final Analyzer a = analyzer;
+		final GameState state = new GameState(gameState);
+		analysisThread = new Thread() {
+			@Override public void run() {
+				try {
+					a.analyze(state);
+				} catch(AbortException e) {
+					// stopped by a move
+				}
+			}
+		};
+		analysisThread.start();
+	}
+	
+	/**
+	 * Abort the analysis (if any), wait for its end, and tell
+	 * the AnalysisListeners that there is no analysis
+	 */
+	private synchronized void stopAnalysis() {
+		if(analysisThread == null) return;
+		
+		analyzer.abort();
+		try {
+			analysisThread.join();
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		analysisThread = null;
+		
+		notifyAnalysisListeners_analysisProgress(null);
+	}
+	
+	/**
+	 * @param aiPlayer
+	 * @return The statistics of the last search of the player,
+	 *         or null if it does not provide them
+	 */
+	private SearchStatistics getStatistics(AIPlayer aiPlayer) {
+		if(aiPlayer instanceof AlphaBetaPlayer)
+			return ((AlphaBetaPlayer) aiPlayer).getStatistics();
+		return null;
 	}
 	
 	/**
@@ -290,6 +581,27 @@ public class Controller {
 		return null;
 	}
 	
+	/**
+	 * Set the AIPlayer associated with the specified turn
+	 * (a computation already started goes on with the old one)
+	 * @param turn
+	 * @param aiPlayer
+	 */
+	public synchronized void setAIPlayer(BoardCellColor turn, AIPlayer aiPlayer) {
+		stopPondering();
+		stopAnalysis();
+		
+		if(turn == BoardCellColor.WHITE)
+			whitePlayer = aiPlayer;
+		else if(turn == BoardCellColor.BLACK)
+			blackPlayer = aiPlayer;
+		
+		if(showingAnalysis && getTurn() != null && !isAITurn())
+			startAnalysis();
+		
+		notifySettingsListeners_settingsChanged();
+	}
+	
 	/**
 	 * Is the game in a finished state?
 	 * (i.e. no player has valid moves)
@@ -386,6 +698,84 @@ public class Controller {
 		notifySettingsListeners_settingsChanged();
 	}
 	
+	public long getSearchTimeLimit() {
+		return searchTimeLimit;
+	}
+	
+	public void setSearchTimeLimit(long searchTimeLimit) {
+		this.searchTimeLimit = searchTimeLimit;
+		
+		notifySettingsListeners_settingsChanged();
+	}
+	
+	public long getSearchNodeLimit() {
+		return searchNodeLimit;
+	}
+	
+	public void setSearchNodeLimit(long searchNodeLimit) {
+		this.searchNodeLimit = searchNodeLimit;
+		
+		notifySettingsListeners_settingsChanged();
+	}
+	
+	public int getSearchThreads() {
+		return searchThreads;
+	}
+	
+	public void setSearchThreads(int searchThreads) {
+		this.searchThreads = searchThreads;
+		
+		notifySettingsListeners_settingsChanged();
+	}
+	
+	public OpeningBook getOpeningBook() {
+		return openingBook;
+	}
+	
+	public void setOpeningBook(OpeningBook openingBook) {
+		this.openingBook = openingBook;
+		
+		notifySettingsListeners_settingsChanged();
+	}
+	
+	public long getSearchHardTimeLimit() {
+		return searchHardTimeLimit;
+	}
+	
+	public void setSearchHardTimeLimit(long searchHardTimeLimit) {
+		this.searchHardTimeLimit = searchHardTimeLimit;
+		
+		notifySettingsListeners_settingsChanged();
+	}
+	
+	public boolean isPondering() {
+		return pondering;
+	}
+	
+	public void setPondering(boolean pondering) {
+		this.pondering = pondering;
+		
+		if(!pondering)
+			stopPondering();
+		
+		notifySettingsListeners_settingsChanged();
+	}
+	
+	public boolean isShowingAnalysis() {
+		return showingAnalysis;
+	}
+	
+	public void setShowingAnalysis(boolean showingAnalysis) {
+		this.showingAnalysis = showingAnalysis;
+		
+		if(showingAnalysis && getTurn() != null && !isAITurn())
+			startAnalysis();
+		else
+			stopAnalysis();
+		
+		notifySettingsListeners_settingsChanged();
+	}
+	
 	public boolean isUsingDynamicDepth() {
 		if(isAiPlaysBlack() && blackPlayer instanceof AlphaBetaPlayer) {
 			AlphaBetaPlayer p = (AlphaBetaPlayer) blackPlayer;
@@ -564,6 +954,34 @@ public class Controller {
 			l.gameEnd(s);
 	}
 	
+	// AnalysisListener observer
+	
+	private List<AnalysisListener> analysisListeners = new ArrayList<AnalysisListener>();
+	
+	public static interface AnalysisListener extends EventListener {
+		/**
+		 * The analysis of the present position has completed a depth
+		 * (sent by the thread running the analysis), or has been stopped
+		 *
+		 * @param lines The valid moves, best first (null when stopped)
+		 */
+		public void analysisProgress(List<Analyzer.Line> lines);
+	}
+	
+	public void addAnalysisListener(AnalysisListener listener) {
+		if(!analysisListeners.contains(listener))
+			analysisListeners.add(listener);
+	}
+	
+	public void removeAnalysisListener(AnalysisListener listener) {
+		analysisListeners.remove(listener);
+	}
+	
+	private void notifyAnalysisListeners_analysisProgress(List<Analyzer.Line> lines) {
+		for(AnalysisListener l : analysisListeners)
+			l.analysisProgress(lines);
+	}
+	
 	// AiTaskListener observer
 	
 	private List<AiTaskListener> aiTaskListeners = new ArrayList<AiTaskListener>();
@@ -574,10 +992,23 @@ public class Controller {
 		 */
 		public void computationStart(AIPlayer aiPlayer);
 		
+		/**
+		 * Progress of a long AI computation (sent periodically,
+		 * by the thread running the computation)
+		 *
+		 * @param aiPlayer
+		 * @param statistics The statistics of the computation so far
+		 */
+		public void computationProgress(AIPlayer aiPlayer, SearchStatistics statistics);
+		
 		/**
 		 * An AI computation has ended
+		 *
+		 * @param aiPlayer
+		 * @param statistics The statistics of the computation
+		 *                   (null if the AI does not provide them)
 		 */
-		public void computationEnd(AIPlayer aiPlayer);
+		public void computationEnd(AIPlayer aiPlayer, SearchStatistics statistics);
 
 		/**
 		 * An AI computation has been aborted
@@ -599,9 +1030,14 @@ public class Controller {
 			l.computationStart(aiPlayer);
 	}
 
-	private void notifyAiTaskListeners_computationEnd(AIPlayer aiPlayer) {
+	private void notifyAiTaskListeners_computationProgress(AIPlayer aiPlayer, SearchStatistics statistics) {
+		for(AiTaskListener l : aiTaskListeners)
+			l.computationProgress(aiPlayer, statistics);
+	}
+	
+	private void notifyAiTaskListeners_computationEnd(AIPlayer aiPlayer, SearchStatistics statistics) {
 		for(AiTaskListener l : aiTaskListeners)
-			l.computationEnd(aiPlayer);
+			l.computationEnd(aiPlayer, statistics);
 	}
 
 	private void notifyAiTaskListeners_computationAborted(AIPlayer aiPlayer) {
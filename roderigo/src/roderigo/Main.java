@@ -1,6 +1,9 @@
 package roderigo;
 
 import java.awt.event.ActionEvent;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
 
 import javax.swing.AbstractAction;
 import javax.swing.JComponent;
@@ -9,6 +12,9 @@ import javax.swing.KeyStroke;
 
 import roderigo.ai.AIPlayer;
 import roderigo.ai.AlphaBetaPlayer;
+import roderigo.ai.Analyzer;
+import roderigo.ai.OpeningBook;
+import roderigo.ai.SearchStatistics;
 import roderigo.ai.genetic.Genome;
 import roderigo.gui.JBoard;
 import roderigo.gui.JRodrigoMainWindow;
@@ -23,6 +29,12 @@ import roderigo.struct.GameState;
  *
  */
 public class Main {
+	/**
+	 * Opening book loaded at startup, if no other file is given
+	 * (see <code>OpeningBookBuilder</code> to create it)
+	 */
+	public static final String DEFAULT_OPENING_BOOK = "roderigo.book";
+	
 	private final Controller controller;
 	
 	public final JRodrigoMainWindow mainWindow;
@@ -45,8 +57,13 @@ public class Main {
 				mainWindow.jboard.lock();
 			}
 			
-			@Override public void computationEnd(AIPlayer aiPlayer) {
+			@Override public void computationProgress(AIPlayer aiPlayer, SearchStatistics statistics) {
+				mainWindow.toolbox.showStatistics(statistics);
+			}
+			
+			@Override public void computationEnd(AIPlayer aiPlayer, SearchStatistics statistics) {
 				mainWindow.jboard.unlock();
+				mainWindow.toolbox.showStatistics(statistics);
 				aiTask = null;
 			}
 			
@@ -63,11 +80,20 @@ public class Main {
 				mainWindow.menuItemAIPlaysBlack.setSelected(controller.isAiPlaysBlack());
 				mainWindow.menuItemAIPlaysWhite.setSelected(controller.isAiPlaysWhite());
 				mainWindow.menuItemDontMakeMoves.setSelected(controller.isDontMakeMoves());
+				mainWindow.menuItemShowAnalysis.setSelected(controller.isShowingAnalysis());
+				mainWindow.menuItemPondering.setSelected(controller.isPondering());
 				
 				mainWindow.toolbox.searchDepth.setEnabled(!controller.isUsingDynamicDepth());
 			}
 		});
 		
+		controller.addAnalysisListener(new Controller.AnalysisListener() {
+			@Override public void analysisProgress(List<Analyzer.Line> lines) {
+				mainWindow.jboard.setAnalysis(lines);
+				mainWindow.jboard.asyncRepaint();
+			}
+		});
+		
 		controller.addGameListener(new Controller.GameListener() {
 			@Override public void newGame(GameState s) {}
 			
@@ -101,13 +127,13 @@ public class Main {
 			}
 		});
 		
-		mainWindow.jboard.getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW).put(KeyStroke.getKeyStroke("ESCAPE"), "abortAiTask");
-		mainWindow.jboard.getActionMap().put("abortAiTask", new AbstractAction() {
+		mainWindow.jboard.getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW).put(KeyStroke.getKeyStroke("ESCAPE"), "cancelAiTask");
+		mainWindow.jboard.getActionMap().put("cancelAiTask", new AbstractAction() {
 			private static final long serialVersionUID = 7906203027073311035L;
 
 			@Override public void actionPerformed(ActionEvent evt) {
 				if(aiTask != null)
-					aiTask.abort();
+					aiTask.cancel();
 			}
 		});
 		
@@ -136,12 +162,29 @@ public class Main {
 		controller.setUsingDynamicDepth(false);
 	}
 	
+	/**
+	 * Load an opening book for the AI (if the file exists)
+	 *
+	 * @param file
+	 */
+	public void loadOpeningBook(File file) {
+		if(!file.exists()) return;
+		
+		try {
+			controller.setOpeningBook(OpeningBook.load(file));
+		} catch(IOException e) {
+			JOptionPane.showMessageDialog(mainWindow, "Cannot load opening book " + file + ":\n" + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+		}
+	}
+	
 	public void run() {
 		controller.startGame();
 	}
 	
 	public static void main(String args[]) {
 		Main main = new Main();
+		
+		main.loadOpeningBook(new File(args.length > 0 ? args[0] : DEFAULT_OPENING_BOOK));
 
 		main.run();
 	}
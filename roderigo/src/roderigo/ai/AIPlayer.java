@@ -10,8 +10,23 @@ import roderigo.struct.GameState;
  *
  */
 public interface AIPlayer {
+	/**
+	 * Stop the computation: <code>getBestMove</code> throws <code>AbortException</code>
+	 */
 	public void abort();
 	
+	/**
+	 * Stop the computation as soon as possible: <code>getBestMove</code>
+	 * returns the best move found so far (if called before the computation
+	 * starts, the next computation is stopped)
+	 */
+	public void cancel();
+	
+	/**
+	 * Forget a call to <code>cancel</code> made when not computing
+	 */
+	public void clearCancel();
+	
 	/**
 	 * From the given starting state, compute the best move
 	 * @param presentState
@@ -1,17 +1,59 @@
 package roderigo.ai;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.EventListener;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import roderigo.ai.genetic.Genome;
 import roderigo.struct.Board;
 import roderigo.struct.BoardCell;
+import roderigo.struct.BoardCellColor;
 import roderigo.struct.BoardCellSet;
 import roderigo.struct.GameState;
 
 /**
- * Implementation of <code>AIPlayer</code> using MIN-MAX optionally with alpha-beta pruning
- * 
+ * Implementation of <code>AIPlayer</code> using alpha-beta search, in the form
+ * of a negamax principal variation search: the first move of each node is
+ * searched with the full window, the others with a zero window, to prove that
+ * they are not better (and searched again with the full window if they are).
+ *
+ * The search is iterative deepening: it is repeated with increasing depth (up to
+ * the maximum depth) and the move found by the last completed iteration is played.
+ * When a time or node budget is set, iterations stop as soon as the next one is
+ * not expected to fit in the remaining budget, or when the budget is exhausted.
+ *
+ * With more than one thread (see <code>setThreads</code>) the search is "Lazy SMP":
+ * helper threads search the same position at the same time, starting from
+ * different depths and with a slightly different move order, and share the
+ * transposition table, so that the main thread finds the results they store.
+ * The move played is always the one found by the main thread.
+ *
+ * With few empty cells left (see <code>setSolverEmpties</code>), after a shallow
+ * search the game is solved by an <code>EndgameSolver</code>; if the solver runs
+ * out of budget, the move of the shallow search is played.
+ *
+ * Leaves are evaluated with the <code>Genome</code> (see <code>IncrementalEvaluation</code>),
+ * or with <code>PatternTables</code> if set (see <code>PatternEvaluation</code>);
+ * their values are kept in a small <code>EvaluationCache</code>.
+ *
+ * Statistics of the search are available during and after it (see <code>getStatistics</code>),
+ * and sent periodically to the <code>SearchListener</code>, if set.
+ *
+ * If an <code>OpeningBook</code> is set, positions found in the book are not
+ * searched: the best book move is played.
+ *
+ * The search can be stopped by <code>cancel</code>, or by a hard time limit (see
+ * <code>setHardTimeLimit</code>), even during the first iteration: the best move
+ * found so far is played. Instead, <code>abort</code> stops the search by making
+ * <code>getBestMove</code> throw <code>AbortException</code>.
+ *
+ * The player can ponder, i.e. search on the opponent's time the position after
+ * the predicted reply (see <code>getPredictedMove</code>): while pondering the
+ * budget is not used, until <code>ponderHit</code> is called.
+ *
  * @author Federico Ferri
  *
  */
@@ -22,15 +64,179 @@ public class AlphaBetaPlayer implements AIPlayer {
 	private int dynamicMaxDepth = DEFAULT_DEPTH;
 	
 	private boolean usingDynamicDepth = true;
+	
+	/**
+	 * Search budget (zero means no limit): time in milliseconds, and number of nodes
+	 */
+	private long timeLimit = 0;
+	private long nodeLimit = 0;
+	
+	/**
+	 * Time limit in milliseconds which stops the search even during the
+	 * first iteration (zero means no limit), and when it ends
+	 */
+	private long hardTimeLimit = 0;
+	private volatile long hardDeadline = 0;
+	
+	/**
+	 * Set by <code>cancel</code>: the search stops, returning the best move found so far
+	 */
+	private volatile boolean cancelled = false;
+	
+	/**
+	 * Depth of the current iteration, and of the last completed one
+	 */
+	private int iterationDepth = 0;
+	private int completedDepth = 0;
+	
+	/**
+	 * Whether the current iteration has reached its depth limit (if not,
+	 * it has reached the end of the game in every line, so searching
+	 * deeper would give the same result)
+	 */
+	private boolean depthLimitReached = false;
+	
+	/**
+	 * Nodes visited by the current search, and when the budget ends
+	 * (the budget starts at <code>budgetNodes</code> nodes)
+	 */
+	private long nodes = 0;
+	private volatile long deadline = 0;
+	private volatile long budgetNodes = 0;
+	private boolean budgetExhausted = false;
+	private boolean budgetEnforced = false;
+	
+	/**
+	 * Counters of the current search, and its start and end time
+	 * (end is zero while searching)
+	 */
+	private final SearchStatistics statistics = new SearchStatistics();
+	private long searchStartNanos = 0;
+	private long searchEndNanos = 0;
+	
+	/**
+	 * Receiver of the statistics during the search, and
+	 * interval between reports in milliseconds
+	 */
+	private volatile SearchListener searchListener = null;
+	private long progressInterval = 1000;
+	private long nextProgress = 0;
+	
+	/**
+	 * Whether the current search is pondering (then the budget is not used)
+	 */
+	private volatile boolean pondering = false;
 
 	private Genome genome;
 	
-	private boolean abort = false;
+	private volatile boolean abort = false;
+	
+	/**
+	 * Number of search threads (including the one calling getBestMove),
+	 * the helpers doing the search for the other threads, and the pool
+	 * running them (created first time it is needed, kept across searches)
+	 */
+	private int threads = 1;
+	private AlphaBetaPlayer helpers[] = new AlphaBetaPlayer[0];
+	private ExecutorService helperExecutor = null;
+	
+	/**
+	 * Positions with at most this number of empty cells are solved
+	 * (0 to disable), exactly or just for win/loss/draw
+	 */
+	public static final int DEFAULT_SOLVER_EMPTIES = 14;
+	private int solverEmpties = DEFAULT_SOLVER_EMPTIES;
+	private int solverMode = EndgameSolver.EXACT;
+	private EndgameSolver solver = null;
+	
+	private OpeningBook openingBook = null;
+	
+	/**
+	 * Value of the last search (for the player to move)
+	 */
+	private int bestValue = 0;
+	
+	/**
+	 * Depth of the search done before solving, giving
+	 * a move to play if the solver runs out of budget
+	 */
+	private static final int SOLVER_PRESEARCH_DEPTH = 4;
 	
 	private GameState presentState = null;
 	
+	/**
+	 * Undo records, one per ply, for the make/unmake search
+	 */
+	private GameState.Undo undo[] = new GameState.Undo[0];
+	
+	/**
+	 * Killer moves and history scores, used to sort the moves of each node
+	 * (created first time it is needed)
+	 */
+	private MoveOrdering moveOrdering = null;
+	
+	/**
+	 * Evaluation of the leaves, following the moves of the search
+	 * (created for each search)
+	 */
+	private SearchEvaluation evaluation = null;
+	
+	/**
+	 * Tables of the pattern evaluation, used instead of the genome if set
+	 */
+	private PatternTables patternTables = null;
+	
+	/**
+	 * Best move found at the root of the search
+	 */
+	private int bestMove = -1;
+	
+	/**
+	 * Results of previous searches, kept across moves
+	 * (created first time it is needed)
+	 */
+	private TranspositionTable transpositionTable = null;
+	private int transpositionTableSizeBits = TranspositionTable.DEFAULT_SIZE_BITS;
+	
+	/**
+	 * Values of the leaves (created first time it is needed, shared with
+	 * the helpers), and the id of the evaluation which computed them
+	 */
+	private EvaluationCache evaluationCache = null;
+	private int evaluationCacheSizeBits = EvaluationCache.DEFAULT_SIZE_BITS;
+	private int evaluationId = 0;
+	
+	/**
+	 * The evaluation is computed for the player to move at the root (and not
+	 * always symmetric), so values of the same position differ with the root
+	 * player: this key tells them apart in the transposition table
+	 */
+	private static final long WHITE_ROOT_KEY = 0x6a09e667f3bcc908L;
+	private long rootKey = 0L;
+	
+	/**
+	 * Bound of all the values
+	 */
+	private static final int INFINITY = Integer.MAX_VALUE;
+	
+	/**
+	 * Smallest half width of the aspiration window (the window around
+	 * the value of the previous iteration used to search the root)
+	 */
+	private static final int MIN_ASPIRATION_WINDOW = 16;
+	
 	public synchronized void abort() {
 		abort = true;
+		if(solver != null) solver.abort();
+	}
+	
+	public synchronized void cancel() {
+		cancelled = true;
+		if(solver != null) solver.abort();
+	}
+	
+	public void clearCancel() {
+		cancelled = false;
 	}
 	
 	public AlphaBetaPlayer(Genome genome) {
@@ -43,6 +249,30 @@ public class AlphaBetaPlayer implements AIPlayer {
 	
 	public void setGenome(Genome genome) {
 		this.genome = genome;
+		
+		// stored values were computed with the old genome:
+		if(transpositionTable != null)
+			transpositionTable.clear();
+		if(moveOrdering != null)
+			moveOrdering.clear();
+	}
+	
+	public PatternTables getPatternTables() {
+		return patternTables;
+	}
+	
+	/**
+	 * @param patternTables Tables to evaluate 8x8 boards with,
+	 *                      instead of the genome (null for none)
+	 */
+	public void setPatternTables(PatternTables patternTables) {
+		this.patternTables = patternTables;
+		
+		// stored values were computed with the old evaluation:
+		if(transpositionTable != null)
+			transpositionTable.clear();
+		if(moveOrdering != null)
+			moveOrdering.clear();
 	}
 	
 	public int getMaxDepth() {
@@ -64,27 +294,274 @@ public class AlphaBetaPlayer implements AIPlayer {
 	public void setUsingDynamicDepth(boolean usingDynamicDepth) {
 		this.usingDynamicDepth = usingDynamicDepth;
 	}
-
-	private List<GameStateWithHeuristic> getSuccessorStates(GameState state) {
-		List<GameStateWithHeuristic> result = new ArrayList<GameStateWithHeuristic>();
+	
+	public int getTranspositionTableSizeBits() {
+		return transpositionTableSizeBits;
+	}
+	
+	/**
+	 * @param sizeBits The transposition table will have 2^sizeBits entries
+	 *                 (16 bytes each)
+	 */
+	public void setTranspositionTableSizeBits(int sizeBits) {
+		transpositionTableSizeBits = sizeBits;
+		transpositionTable = null;
+	}
+	
+	public int getEvaluationCacheSizeBits() {
+		return evaluationCacheSizeBits;
+	}
+	
+	/**
+	 * @param sizeBits The evaluation cache will have 2^sizeBits entries
+	 *                 (16 bytes each), or none if zero
+	 */
+	public void setEvaluationCacheSizeBits(int sizeBits) {
+		evaluationCacheSizeBits = sizeBits;
+		evaluationCache = null;
+	}
+	
+	public long getTimeLimit() {
+		return timeLimit;
+	}
+	
+	public long getNodeLimit() {
+		return nodeLimit;
+	}
+	
+	/**
+	 * Set the search budget for each move. When a budget is set and the dynamic
+	 * depth is used, the depth is limited only by the budget (and by the end
+	 * of the game); otherwise also by the maximum depth.
+	 *
+	 * @param timeLimit Time limit in milliseconds (0 for no limit)
+	 * @param nodeLimit Limit of searched nodes (0 for no limit)
+	 */
+	public void setBudget(long timeLimit, long nodeLimit) {
+		this.timeLimit = timeLimit;
+		this.nodeLimit = nodeLimit;
+	}
+	
+	public long getHardTimeLimit() {
+		return hardTimeLimit;
+	}
+	
+	/**
+	 * Set a time limit for each move which, unlike the budget, stops also the
+	 * first iteration (then the best move found so far by the iteration is played)
+	 *
+	 * @param hardTimeLimit Time limit in milliseconds (0 for no limit)
+	 */
+	public void setHardTimeLimit(long hardTimeLimit) {
+		this.hardTimeLimit = hardTimeLimit;
+	}
+	
+	private boolean hasBudget() {
+		return timeLimit > 0 || nodeLimit > 0;
+	}
+	
+	/**
+	 * @return The depth of the last completed iteration of the last search
+	 */
+	public int getCompletedDepth() {
+		return completedDepth;
+	}
+	
+	/**
+	 * @return The number of nodes visited by the last search
+	 */
+	public long getNodeCount() {
+		return nodes;
+	}
+	
+	public int getThreads() {
+		return threads;
+	}
+	
+	/**
+	 * @param threads Number of threads searching each move
+	 */
+	public synchronized void setThreads(int threads) {
+		if(threads < 1)
+			throw new RuntimeException("Invalid number of threads: " + threads);
 		
-		BoardCellSet moves = state.getBoard().getValidMoves(state.getTurn());
+		if(threads != this.threads) shutdown();
+		this.threads = threads;
+	}
+	
+	/**
+	 * Stop the helper threads (they are started again by the next search)
+	 */
+	public synchronized void shutdown() {
+		if(helperExecutor == null) return;
 		
-		for(BoardCell move : moves) {
-			GameStateWithHeuristic newState = new GameStateWithHeuristic(state);
-			newState.move(move);
-			//newState.h = newState.getTurn() != null ? new BoardEvaluation(newState.getBoard(), null, newState.getTurn()).getValue() : 0;
-			result.add(newState);
-		}
+		helperExecutor.shutdown();
+		helperExecutor = null;
+	}
+	
+	public int getSolverEmpties() {
+		return solverEmpties;
+	}
+	
+	/**
+	 * @param solverEmpties Solve positions with at most this number of empty cells (0 to disable)
+	 */
+	public void setSolverEmpties(int solverEmpties) {
+		this.solverEmpties = solverEmpties;
+	}
+	
+	public boolean isSolvingWinLossDraw() {
+		return solverMode == EndgameSolver.WIN_LOSS_DRAW;
+	}
+	
+	/**
+	 * @param winLossDraw If true, the endgame is solved just for win/loss/draw (which is
+	 *                    faster), playing any winning move instead of the best one
+	 */
+	public void setSolvingWinLossDraw(boolean winLossDraw) {
+		solverMode = winLossDraw ? EndgameSolver.WIN_LOSS_DRAW : EndgameSolver.EXACT;
+	}
+	
+	/**
+	 * @return The statistics of the current (or last) search
+	 */
+	public SearchStatistics getStatistics() {
+		SearchStatistics s = new SearchStatistics(statistics);
+		s.nodes = nodes;
+		s.depth = completedDepth;
+		s.nanos = (searchEndNanos != 0 ? searchEndNanos : System.nanoTime()) - searchStartNanos;
+		return s;
+	}
+	
+	public SearchListener getSearchListener() {
+		return searchListener;
+	}
+	
+	/**
+	 * @param searchListener Receiver of the statistics during the search (null for none)
+	 */
+	public void setSearchListener(SearchListener searchListener) {
+		this.searchListener = searchListener;
+	}
+	
+	public long getProgressInterval() {
+		return progressInterval;
+	}
+	
+	/**
+	 * @param progressInterval Interval between reports to the <code>SearchListener</code>, in milliseconds
+	 */
+	public void setProgressInterval(long progressInterval) {
+		this.progressInterval = progressInterval;
+	}
+	
+	public boolean isPondering() {
+		return pondering;
+	}
+	
+	/**
+	 * @param pondering If true, the next searches do not use the budget (until
+	 *                  <code>ponderHit</code> is called): they stop only when
+	 *                  aborted, or at the maximum depth
+	 */
+	public void setPondering(boolean pondering) {
+		this.pondering = pondering;
+	}
+	
+	/**
+	 * The position being pondered is now to be played: the search
+	 * continues, with the budget starting now
+	 */
+	public synchronized void ponderHit() {
+		long now = System.currentTimeMillis();
+		deadline = now + timeLimit;
+		hardDeadline = (hardTimeLimit > 0) ? now + hardTimeLimit : 0;
+		budgetNodes = nodes; // read from another thread, so just about right
+		pondering = false;
 		
-		//Collections.sort(result);
-		//Collections.reverse(result);
+		// the solver may be running already, without budget:
+		if(solver != null) solver.updateBudget(getSolverDeadline(), nodeLimit);
+	}
+	
+	/**
+	 * Predict the opponent's reply to the last move, as found by the last search
+	 *
+	 * @param s The state after the last move (the opponent to move)
+	 * @return The predicted move, or -1 if unknown
+	 */
+	public int getPredictedMove(GameState s) {
+		if(transpositionTable == null || s.getTurn() == null) return -1;
 		
-		return result;
+		int move = TranspositionTable.getMove(transpositionTable.probe(s.getHash() ^ rootKey));
+		if(move < 0 || (s.getBoard().getValidMovesMask(s.getTurn()) & (1L << move)) == 0)
+			return -1;
+		return move;
+	}
+	
+	public OpeningBook getOpeningBook() {
+		return openingBook;
+	}
+	
+	/**
+	 * @param openingBook The book to play from (null for none)
+	 */
+	public void setOpeningBook(OpeningBook openingBook) {
+		this.openingBook = openingBook;
+	}
+	
+	public void clearTranspositionTable() {
+		if(transpositionTable != null)
+			transpositionTable.clear();
+	}
+
+	/**
+	 * Evaluate a leaf, measuring the time of a sample of the calls
+	 */
+	private int evaluate(GameState state) {
+		if((statistics.leaves++ & SearchStatistics.TIMING_SAMPLE_MASK) != 0)
+			return computeUtility(state);
+		
+		long t = System.nanoTime();
+		int v = computeUtility(state);
+		statistics.evaluationNanos += (System.nanoTime() - t) << SearchStatistics.TIMING_SAMPLE_BITS;
+		return v;
+	}
+	
+	/**
+	 * Generate and sort the moves of a node (see <code>MoveOrdering.sort</code>),
+	 * measuring the time of a sample of the calls
+	 */
+	private int generateMoves(GameState state, BoardCellColor player, int hashMove, int depth) {
+		boolean timed = (statistics.moveGenerations++ & SearchStatistics.TIMING_SAMPLE_MASK) == 0;
+		long t = timed ? System.nanoTime() : 0;
+		
+		int n = moveOrdering.sort(state.getBoard().getValidMovesMask(player),
+				hashMove, depth, BoardCellColor.toInt(player) - 1);
+		
+		if(timed) statistics.moveGenerationNanos += (System.nanoTime() - t) << SearchStatistics.TIMING_SAMPLE_BITS;
+		return n;
 	}
 	
 	private int computeUtility(GameState state) {
-		return new BoardEvaluation(state.getBoard(), presentState.getTurn()).getValue(genome);
+		BoardCellColor player = presentState.getTurn();
+		if(terminalTest(state)) {
+			Board b = state.getBoard();
+			return BoardEvaluation.GAME_END_WEIGHT * (Long.bitCount(b.getPiecesMask(player)) - Long.bitCount(b.getPiecesMask(player.opposite())));
+		}
+		if(evaluationCache == null)
+			return evaluation.getValue(player);
+		
+		// the value depends on the root player, as in the transposition table:
+		long key = state.getBoard().getHash() ^ rootKey;
+		long entry = evaluationCache.probe(key, evaluationId);
+		if(entry != 0) {
+			statistics.evaluationCacheHits++;
+			return EvaluationCache.getScore(entry);
+		}
+		
+		int v = evaluation.getValue(player);
+		evaluationCache.store(key, evaluationId, v);
+		return v;
 	}
 
 	private boolean terminalTest(GameState state) {
@@ -92,75 +569,176 @@ public class AlphaBetaPlayer implements AIPlayer {
 	}
 
 	/**
-	 * Do a MAX move. If <param>ab</param> is null, behaves like classical MIN-MAX;
-	 * otherwise it uses alpha-beta pruning.
+	 * Principal variation search of a node, in negamax form: values are from
+	 * the point of view of <param>player</param>, which is the player to move
+	 * (or, at the end of the game, the opponent of the player who made the last move).
+	 * 
+	 * Successors are visited by making and unmaking moves on <param>state</param>,
+	 * which is left unchanged on return.
 	 * 
 	 * @param state Starting point
-	 * @param ab Alpha-beta bean
-	 * @param depth Param used to limit depth
-	 * @return The computed max value
+	 * @param player The player for whom the value is computed
+	 * @param alpha Lower bound of the search window
+	 * @param beta Upper bound of the search window
+	 * @param depth Depth of the node (0 at the root)
+	 * @return The computed value (a bound if outside the window)
 	 * @throws AbortException
 	 */
-	private int maxValue(GameStateWithHeuristic state, AlphaBeta ab, int depth) throws AbortException {
-		if(abort) throw new AbortException();
-		int v = Integer.MIN_VALUE;
-		if(terminalTest(state) || depth >= dynamicMaxDepth) {
-			return computeUtility(state);
-		} else {
-			List<GameStateWithHeuristic> successorList = getSuccessorStates(state);
-			for(int i = 0; i < successorList.size(); i++) {
-				GameStateWithHeuristic successor = successorList.get(i);
-				int minimumValueOfSuccessor = minValue(successor, ab != null ? ab.clone() : null, depth + 1);
-				if(minimumValueOfSuccessor > v) {
-					v = minimumValueOfSuccessor;
-					state.setNext(successor);
-				}
-				if(ab != null) {
-					// use alpha-beta pruning
-					if(v >= ab.getBeta()) {
-						return v;
-					}
-					ab.setAlpha(Math.max(ab.getAlpha(), v));
+	private int search(GameState state, BoardCellColor player, int alpha, int beta, int depth) throws AbortException {
+		if(abort || ((++nodes & 1023) == 0 && poll())) throw new AbortException();
+		
+		if(terminalTest(state) || depth >= iterationDepth) {
+			if(!terminalTest(state)) depthLimitReached = true;
+			int v = evaluate(state);
+			return (player == presentState.getTurn()) ? v : -v;
+		}
+		
+		int alphaOrig = alpha;
+		long key = state.getHash() ^ rootKey;
+		long entry = transpositionTable.probe(key);
+		statistics.ttProbes++;
+		if(entry != 0) statistics.ttHits++;
+		if(depth > 0 && isCutoff(entry, depth, alpha, beta))
+			return TranspositionTable.getScore(entry);
+		
+		GameState.Undo u = undo[depth];
+		int n = generateMoves(state, player, TranspositionTable.getMove(entry), depth);
+		int moves[] = moveOrdering.getMoves(depth), best = -1, v = -INFINITY;
+		for(int i = 0; i < n; i++) {
+			int move = moves[i];
+			state.makeMove(move, u);
+			evaluation.makeMove(u);
+			int value;
+			try {
+				if(i == 0) {
+					value = searchChild(state, player, alpha, beta, depth + 1);
+				} else {
+					value = searchChild(state, player, alpha, alpha + 1, depth + 1);
+					if(value > alpha && value < beta)
+						value = searchChild(state, player, alpha, beta, depth + 1);
 				}
+			} finally {
+				state.unmakeMove(u);
+				evaluation.unmakeMove(u);
+			}
+			if(value > v || best < 0) {
+				v = value;
+				best = move;
+				if(depth == 0) bestMove = move;
+			}
+			if(v > alpha) alpha = v;
+			if(alpha >= beta) {
+				statistics.cutoffs[Math.min(i, SearchStatistics.CUTOFF_MOVE_INDEXES - 1)]++;
+				moveOrdering.cutoff(best, depth, BoardCellColor.toInt(player) - 1, iterationDepth - depth);
+				transpositionTable.store(key, iterationDepth - depth, TranspositionTable.LOWER, v, best);
+				return v;
 			}
-			return v;
 		}
+		transpositionTable.store(key, iterationDepth - depth,
+				v <= alphaOrig ? TranspositionTable.UPPER : TranspositionTable.EXACT, v, best);
+		return v;
+	}
+	
+	/**
+	 * Search a successor of a node of <param>player</param>, and return its value
+	 * for <param>player</param>: negated, unless <param>player</param> moves again
+	 * (because the opponent has to pass)
+	 */
+	private int searchChild(GameState state, BoardCellColor player, int alpha, int beta, int depth) throws AbortException {
+		if(state.getTurn() == player)
+			return search(state, player, alpha, beta, depth);
+		return -search(state, player.opposite(), -beta, -alpha, depth);
 	}
 	
 	/**
-	 * Do a MIN move. If <param>ab</param> is null, behaves like classical MIN-MAX;
-	 * otherwise it uses alpha-beta pruning.
+	 * Search the root with a window around the value of the previous
+	 * iteration, widening it while the value falls outside
 	 * 
-	 * @param state Starting point
-	 * @param ab Alpha-beta bean
-	 * @param depth Param used to limit depth
-	 * @return The computed min value
+	 * @param state
+	 * @param guess The expected value (the value of the previous iteration)
+	 * @param window Initial half width of the window
+	 * @return The exact value of the root
 	 * @throws AbortException
 	 */
-	private int minValue(GameStateWithHeuristic state, AlphaBeta ab, int depth) throws AbortException {
-		if(abort) throw new AbortException();
-		int v = Integer.MAX_VALUE;
-		if(terminalTest(state) || depth >= dynamicMaxDepth) {
-			return computeUtility(state);
-		} else {
-			List<GameStateWithHeuristic> successorList = getSuccessorStates(state);
-			for(int i = 0; i < successorList.size(); i++) {
-				GameStateWithHeuristic successor = successorList.get(i);
-				int maximumValueOfSuccessor = maxValue(successor, ab != null ? ab.clone() : null, depth + 1);
-				if(maximumValueOfSuccessor < v) {
-					v = maximumValueOfSuccessor;
-					state.setNext(successor);
-				}
-				if(ab != null) {
-					// use alpha-beta pruning
-					if(v <= ab.getAlpha()) {
-						return v;
-					}
-					ab.setBeta(Math.min(ab.getBeta(), v));
-				}
+	private int aspirationSearch(GameState state, int guess, int window) throws AbortException {
+		long delta = Math.max(MIN_ASPIRATION_WINDOW, window);
+		while(true) {
+			int alpha = (int) Math.max(-INFINITY, guess - delta);
+			int beta = (int) Math.min(INFINITY, guess + delta);
+			int v = search(state, state.getTurn(), alpha, beta, 0);
+			if((v > alpha || alpha == -INFINITY) && (v < beta || beta == INFINITY))
+				return v;
+			delta *= 4;
+		}
+	}
+	
+	/**
+	 * Tell if a transposition table entry is deep enough, and its bound
+	 * tight enough, to be used instead of searching the node
+	 */
+	private boolean isCutoff(long entry, int depth, int alpha, int beta) {
+		if(entry == 0 || TranspositionTable.getDepth(entry) < iterationDepth - depth)
+			return false;
+		
+		int score = TranspositionTable.getScore(entry);
+		boolean cutoff = false;
+		switch(TranspositionTable.getBound(entry)) {
+		case TranspositionTable.EXACT: cutoff = true; break;
+		case TranspositionTable.LOWER: cutoff = score >= beta; break;
+		case TranspositionTable.UPPER: cutoff = score <= alpha; break;
+		}
+		
+		// the stored search may have been limited by depth:
+		if(cutoff) depthLimitReached = true;
+		return cutoff;
+	}
+	
+	/**
+	 * Called periodically during the search: sends the statistics to the
+	 * listener (if it is time to), and checks cancellation and budget
+	 *
+	 * @return <code>true</code> if the search has to be stopped
+	 */
+	private boolean poll() {
+		SearchListener l = searchListener;
+		if(l != null && progressInterval > 0) {
+			long now = System.currentTimeMillis();
+			if(now >= nextProgress) {
+				nextProgress = now + progressInterval;
+				l.searchProgress(this, getStatistics());
 			}
-			return v;
 		}
+		
+		if(isCancelled()) {
+			budgetExhausted = true;
+			return true;
+		}
+		
+		return checkBudget();
+	}
+	
+	/**
+	 * @return <code>true</code> if the search has been cancelled,
+	 *         or the hard time limit has been reached
+	 */
+	private boolean isCancelled() {
+		if(cancelled) return true;
+		
+		long d = hardDeadline;
+		return d > 0 && !pondering && System.currentTimeMillis() >= d;
+	}
+	
+	/**
+	 * @return <code>true</code> if the search has to be stopped
+	 *         because the budget is exhausted
+	 */
+	private boolean checkBudget() {
+		if(!budgetEnforced || pondering) return false;
+		
+		if((nodeLimit > 0 && nodes - budgetNodes >= nodeLimit) || (timeLimit > 0 && System.currentTimeMillis() >= deadline))
+			budgetExhausted = true;
+		
+		return budgetExhausted;
 	}
 	
 	private void recalculateDynamicDepth() {
@@ -203,30 +781,502 @@ public class AlphaBetaPlayer implements AIPlayer {
 	}
 	
 	public BoardCell getBestMove(GameState presentState) throws AbortException {
+		startStatistics();
+		try {
+			Board board = presentState.getBoard(); // the original board
+			BoardCellSet moves = board.getValidMoves(presentState.getTurn());
+			if(moves.size() == 1) return moves.iterator().next();
+			
+			int bookMove = (openingBook != null) ? openingBook.getBestMove(presentState) : -1;
+			if(bookMove >= 0 && moves.contains(board.get(bookMove)))
+				return board.get(bookMove);
+			
+			return board.get(searchRoot(presentState));
+		} finally {
+			searchEndNanos = System.nanoTime();
+			cancelled = false;
+		}
+	}
+	
+	/**
+	 * Search the given state (as <code>getBestMove</code> does, but
+	 * without using the opening book, even if there is only one move)
+	 *
+	 * @param presentState
+	 * @return The value of the state for the player to move
+	 *         (the same scale as <code>BoardEvaluation</code>)
+	 * @throws AbortException
+	 */
+	public int getValue(GameState presentState) throws AbortException {
+		startStatistics();
+		try {
+			searchRoot(presentState);
+			return bestValue;
+		} finally {
+			searchEndNanos = System.nanoTime();
+			cancelled = false;
+		}
+	}
+	
+	/**
+	 * Reset the statistics at the start of a search
+	 */
+	private void startStatistics() {
+		statistics.clear();
+		nodes = 0;
+		completedDepth = 0;
+		searchStartNanos = System.nanoTime();
+		searchEndNanos = 0;
+		nextProgress = System.currentTimeMillis() + progressInterval;
+	}
+	
+	/**
+	 * @return The best move
+	 * @throws AbortException
+	 */
+	private int searchRoot(GameState presentState) throws AbortException {
+		long startTime = System.currentTimeMillis();
+		
 		this.presentState = presentState;
 		
 		recalculateDynamicDepth();
 		
-		Board board = presentState.getBoard(); // the original board
-		BoardCellSet moves = board.getValidMoves(presentState.getTurn());
-		if(moves.size() == 1) return moves.iterator().next();
+		Board board = presentState.getBoard();
 		
 		abort = false;
+		
+		// with a budget, the dynamic depth is decided by the budget itself:
+		int empty = Long.bitCount(board.getPiecesMask(null));
+		int maxIterationDepth = (hasBudget() && usingDynamicDepth) ? empty : Math.min(dynamicMaxDepth, empty);
+		boolean solving = empty <= solverEmpties;
+		if(solving) maxIterationDepth = Math.min(maxIterationDepth, SOLVER_PRESEARCH_DEPTH);
+		
+		if(transpositionTable == null)
+			transpositionTable = new TranspositionTable(transpositionTableSizeBits);
+		transpositionTable.newSearch();
+		if(evaluationCache == null && evaluationCacheSizeBits > 0)
+			evaluationCache = new EvaluationCache(evaluationCacheSizeBits);
+		
+		GameState state = prepareSearch(presentState, maxIterationDepth);
+		
+		deadline = startTime + timeLimit;
+		hardDeadline = (hardTimeLimit > 0) ? startTime + hardTimeLimit : 0;
+		budgetNodes = 0;
+		budgetExhausted = false;
+		completedDepth = 0;
+		
+		int completedBestMove;
+		Future<?> helperTasks[] = startHelpers(presentState, maxIterationDepth, empty);
+		try {
+			completedBestMove = iterate(state, maxIterationDepth);
+		} finally {
+			stopHelpers(helperTasks);
+		}
+		
+		// stopped during the first iteration: the best move found so far
+		if(completedBestMove < 0)
+			completedBestMove = (bestMove >= 0) ? bestMove : Long.numberOfTrailingZeros(board.getValidMovesMask(presentState.getTurn()));
+		
+		if(solving && !budgetExhausted) {
+			int move = solveEndgame(board, presentState.getTurn());
+			if(move >= 0) {
+				completedBestMove = move;
+				completedDepth = empty;
+			}
+		}
+		
+		return completedBestMove;
+	}
+	
+	/**
+	 * Solve the present position with the remaining budget
+	 *
+	 * @return The best move, or -1 if the budget was not enough
+	 * @throws AbortException
+	 */
+	private int solveEndgame(Board board, BoardCellColor turn) throws AbortException {
+		// synchronized with ponderHit, which changes the budget of the solver:
+		synchronized(this) {
+			if(solver == null || solver.getGeometry() != board.getGeometry())
+				solver = new EndgameSolver(board.getGeometry());
+			
+			if(pondering)
+				solver.setBudget(0, 0);
+			else
+				solver.setBudget(getSolverDeadline(), nodeLimit > 0 ? Math.max(1, nodeLimit - (nodes - budgetNodes)) : 0);
+		}
+		if(abort) throw new AbortException();
+		if(cancelled) return -1;
+		
+		try {
+			int value = solver.solve(board.getPiecesMask(turn), board.getPiecesMask(turn.opposite()), solverMode);
+			if(solver.getBestMove() >= 0)
+				bestValue = value * BoardEvaluation.GAME_END_WEIGHT;
+			return solver.getBestMove();
+		} catch(AbortException e) {
+			if((solver.isBudgetExhausted() || cancelled) && !abort) return -1;
+			throw e;
+		} finally {
+			nodes += solver.getNodeCount();
+		}
+	}
+	
+	/**
+	 * @return The time when the solver has to stop (the earliest of the
+	 *         budget and the hard time limit), or 0 for no limit
+	 */
+	private long getSolverDeadline() {
+		long solverDeadline = (timeLimit > 0) ? deadline : 0, d = hardDeadline;
+		if(d > 0 && (solverDeadline == 0 || d < solverDeadline)) solverDeadline = d;
+		return solverDeadline;
+	}
+	
+	/**
+	 * Prepare the search structures of this thread
+	 *
+	 * @param presentState The root of the search
+	 * @param maxIterationDepth
+	 * @return The state to search (a copy of presentState)
+	 */
+	private GameState prepareSearch(GameState presentState, int maxIterationDepth) {
+		this.presentState = presentState;
+		
+		Board board = presentState.getBoard();
+		
+		if(undo.length < maxIterationDepth) {
+			undo = new GameState.Undo[maxIterationDepth];
+			for(int i = 0; i < undo.length; i++)
+				undo[i] = new GameState.Undo();
+		}
+		
+		if(moveOrdering == null || moveOrdering.getGeometry() != board.getGeometry())
+			moveOrdering = new MoveOrdering(board.getGeometry(), maxIterationDepth);
+		moveOrdering.resize(maxIterationDepth);
+		moveOrdering.newSearch();
+		rootKey = (presentState.getTurn() == BoardCellColor.WHITE) ? WHITE_ROOT_KEY : 0L;
+		
+		nodes = 0;
+		statistics.clear();
+		
+		if(patternTables != null && PatternTables.accepts(board.getGeometry())) {
+			evaluation = new PatternEvaluation(patternTables);
+			evaluationId = System.identityHashCode(patternTables);
+		} else {
+			evaluation = new IncrementalEvaluation(board.getGeometry(), genome);
+			evaluationId = genome.getId();
+		}
+		
+		// the whole search runs on a single copy of the present state,
+		// using make/unmake instead of cloning a state for each node
+		GameState state = new GameState(presentState);
+		evaluation.reset(state.getBoard());
+		return state;
+	}
+	
+	/**
+	 * The iterative deepening loop of the main thread
+	 *
+	 * @return The best move of the last completed iteration
+	 * @throws AbortException
+	 */
+	private int iterate(GameState state, int maxIterationDepth) throws AbortException {
+		int completedBestMove = -1;
+		long lastTime = 0, lastNodes = 0;
+		int value = 0, window = 0;
 
-		GameStateWithHeuristic presentStateH = new GameStateWithHeuristic(presentState);
-		maxValue(presentStateH, new AlphaBeta(Integer.MIN_VALUE, Integer.MAX_VALUE), 0);
-		GameStateWithHeuristic nextState = presentStateH.getNext();
-		if(nextState == null)
-			throw new RuntimeException("AlphaBetaPlayer made a BOO-BOO");
-		
-		/* introducing GameStateWithHeuristic, I introduced a cloning
-		 * of the Board, which implies cloning the BoardCells
-		 * 
-		 * thus, simply returning nextState.getLastMove() would return
-		 * a cell of another board, not the original board
-		 * 
-		 * (caused a bug in paint, which checked for lastMove using ==)
+		for(iterationDepth = 1; iterationDepth <= maxIterationDepth; iterationDepth++) {
+			long iterationStartTime = System.currentTimeMillis(), iterationStartNodes = nodes;
+			
+			// the first iteration always completes, so that there is a move to play:
+			budgetEnforced = iterationDepth > 1;
+			depthLimitReached = false;
+			bestMove = -1;
+			
+			try {
+				if(iterationDepth == 1) {
+					value = search(state, state.getTurn(), -INFINITY, INFINITY, 0);
+				} else {
+					int previousValue = value;
+					value = aspirationSearch(state, previousValue, window);
+					window = Math.abs(value - previousValue);
+				}
+			} catch(AbortException e) {
+				if(budgetExhausted && !abort) break;
+				throw e;
+			}
+			
+			if(bestMove < 0)
+				throw new RuntimeException("AlphaBetaPlayer made a BOO-BOO");
+			
+			completedBestMove = bestMove;
+			completedDepth = iterationDepth;
+			bestValue = value;
+			
+			// the whole game tree has been searched:
+			if(!depthLimitReached) break;
+			
+			// predict the cost of the next iteration from the growth of the last ones:
+			long iterationTime = System.currentTimeMillis() - iterationStartTime;
+			long iterationNodes = nodes - iterationStartNodes;
+			double growth = (lastNodes > 0) ? Math.max(2.0, Math.min(16.0, (double) iterationNodes / lastNodes)) : 4.0;
+			lastTime = iterationTime;
+			lastNodes = iterationNodes;
+			
+			if(pondering)
+				continue;
+			if(timeLimit > 0 && System.currentTimeMillis() + lastTime * growth > deadline)
+				break;
+			if(nodeLimit > 0 && nodes - budgetNodes + lastNodes * growth > nodeLimit)
+				break;
+		}
+		
+		return completedBestMove;
+	}
+	
+	/**
+	 * Start the helper threads, each running iterative deepening on its own
+	 * copy of the present state, until stopped by <code>stopHelpers</code>
+	 *
+	 * @return The started tasks
+	 */
+	private synchronized Future<?>[] startHelpers(GameState presentState, int maxIterationDepth, int empty) {
+		if(helpers.length != threads - 1) {
+			AlphaBetaPlayer h[] = new AlphaBetaPlayer[threads - 1];
+			for(int i = 0; i < h.length; i++)
+				h[i] = (i < helpers.length) ? helpers[i] : new AlphaBetaPlayer(genome);
+			helpers = h;
+		}
+		
+		if(helperExecutor == null && helpers.length > 0) {
+			helperExecutor = Executors.newFixedThreadPool(helpers.length, new ThreadFactory() {
+				@Override public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "AlphaBetaPlayer helper");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		
+		Future<?> helperTasks[] = new Future<?>[helpers.length];
+		for(int i = 0; i < helpers.length; i++) {
+			final AlphaBetaPlayer helper = helpers[i];
+			helper.genome = genome;
+			helper.patternTables = patternTables;
+			helper.transpositionTable = transpositionTable;
+			helper.evaluationCache = evaluationCache;
+			helper.abort = false;
+			
+			// staggered depths: odd helpers skip the first iteration and go one ply deeper
+			final int firstDepth = 1 + (i + 1) % 2;
+			final int lastDepth = Math.min(empty, maxIterationDepth + (i + 1) % 2);
+			final GameState state = helper.prepareSearch(presentState, lastDepth);
+			helper.moveOrdering.perturb(i + 1);
+			
+			helperTasks[i] = helperExecutor.submit(new Runnable() {
+				@Override public void run() {
+					try {
+						helper.iterateHelper(state, firstDepth, lastDepth);
+					} catch(AbortException e) {
+						// stopped by the main thread
+					}
+				}
+			});
+		}
+		return helperTasks;
+	}
+	
+	/**
+	 * The iterative deepening loop of a helper thread
+	 *
+	 * @throws AbortException
+	 */
+	private void iterateHelper(GameState state, int firstDepth, int lastDepth) throws AbortException {
+		budgetEnforced = false;
+		
+		for(iterationDepth = firstDepth; iterationDepth <= lastDepth; iterationDepth++) {
+			depthLimitReached = false;
+			search(state, state.getTurn(), -INFINITY, INFINITY, 0);
+			if(!depthLimitReached) break;
+		}
+	}
+	
+	/**
+	 * Stop the helpers and wait for them to finish
+	 *
+	 * @param helperTasks
+	 */
+	private void stopHelpers(Future<?> helperTasks[]) {
+		for(int i = 0; i < helperTasks.length; i++)
+			helpers[i].abort();
+		
+		boolean interrupted = false;
+		for(int i = 0; i < helperTasks.length; i++) {
+			while(true) {
+				try {
+					helperTasks[i].get();
+					break;
+				} catch(InterruptedException e) {
+					interrupted = true;
+				} catch(ExecutionException e) {
+					throw new RuntimeException(e.getCause());
+				}
+			}
+			nodes += helpers[i].nodes;
+			statistics.add(helpers[i].statistics);
+		}
+		if(interrupted) Thread.currentThread().interrupt();
+	}
+	
+	/**
+	 * Create a player which evaluates as this one (used by <code>Analyzer</code>,
+	 * see <code>prepareWorker</code>)
+	 */
+	AlphaBetaPlayer createWorker() {
+		AlphaBetaPlayer worker = new AlphaBetaPlayer(genome);
+		prepareWorker(worker);
+		return worker;
+	}
+	
+	/**
+	 * Make a worker evaluate as this player, sharing its transposition table
+	 * and evaluation cache. <code>Analyzer</code> calls this before each
+	 * analysis, since the genome, the pattern tables and the tables of this
+	 * player may have been changed since the worker was created.
+	 */
+	void prepareWorker(AlphaBetaPlayer worker) {
+		if(transpositionTable == null)
+			transpositionTable = new TranspositionTable(transpositionTableSizeBits);
+		if(evaluationCache == null && evaluationCacheSizeBits > 0)
+			evaluationCache = new EvaluationCache(evaluationCacheSizeBits);
+		
+		// history of the old evaluation:
+		if((worker.genome != genome || worker.patternTables != patternTables) && worker.moveOrdering != null)
+			worker.moveOrdering.clear();
+		
+		worker.genome = genome;
+		worker.patternTables = patternTables;
+		worker.transpositionTable = transpositionTable;
+		worker.evaluationCache = evaluationCache;
+		worker.solverEmpties = solverEmpties;
+	}
+	
+	/**
+	 * Start an analysis (see <code>searchMove</code> and <code>solveMove</code>):
+	 * forget previous calls to <code>abort</code> and <code>cancel</code>
+	 *
+	 * @param deadline Time when the searches have to stop, as for the
+	 *                 hard time limit (0 for no limit)
+	 */
+	void startAnalysis(long deadline) {
+		abort = false;
+		cancelled = false;
+		pondering = false;
+		hardDeadline = deadline;
+		budgetEnforced = false;
+	}
+	
+	/**
+	 * Search a move of the given state with a full window, so that its value
+	 * is exact (also if it is not the best move)
+	 *
+	 * @param presentState
+	 * @param move The move (cell index)
+	 * @param depth Depth of the search, including the move
+	 * @return The value of the move for the player to move in presentState
+	 * @throws AbortException
+	 */
+	int searchMove(GameState presentState, int move, int depth) throws AbortException {
+		if(transpositionTable == null)
+			transpositionTable = new TranspositionTable(transpositionTableSizeBits);
+		
+		GameState state = prepareSearch(presentState, depth + 1);
+		iterationDepth = depth;
+		depthLimitReached = false;
+		budgetExhausted = false;
+		
+		BoardCellColor player = state.getTurn();
+		GameState.Undo u = undo[0];
+		state.makeMove(move, u);
+		evaluation.makeMove(u);
+		return searchChild(state, player, -INFINITY, INFINITY, 1);
+	}
+	
+	/**
+	 * @return <code>true</code> if the last search stopped at the depth limit
+	 *         somewhere, i.e. its value is not the final result of the game
+	 */
+	boolean isDepthLimitReached() {
+		return depthLimitReached;
+	}
+	
+	/**
+	 * Solve a move of the given state with the <code>EndgameSolver</code>
+	 *
+	 * @param presentState
+	 * @param move The move (cell index)
+	 * @return The value of the move for the player to move in presentState
+	 *         (the final difference of pieces times <code>GAME_END_WEIGHT</code>)
+	 * @throws AbortException
+	 */
+	int solveMove(GameState presentState, int move) throws AbortException {
+		Board board = presentState.getBoard();
+		if(solver == null || solver.getGeometry() != board.getGeometry())
+			solver = new EndgameSolver(board.getGeometry());
+		
+		GameState state = new GameState(presentState);
+		BoardCellColor player = state.getTurn();
+		state.makeMove(move, null);
+		
+		solver.setBudget(hardDeadline, 0);
+		if(abort || cancelled) throw new AbortException();
+		
+		try {
+			// the solver plays the passes, so it always starts with the opponent:
+			Board b = state.getBoard();
+			return -BoardEvaluation.GAME_END_WEIGHT * solver.solve(b.getPiecesMask(player.opposite()), b.getPiecesMask(player), solverMode);
+		} finally {
+			nodes = solver.getNodeCount();
+		}
+	}
+	
+	/**
+	 * Follow the best moves stored in the transposition table by the
+	 * searches of the given state
+	 *
+	 * @param presentState
+	 * @param move The first move (cell index)
+	 * @param maxLength
+	 * @return The principal variation, starting with <code>move</code>
+	 */
+	int[] getPrincipalVariation(GameState presentState, int move, int maxLength) {
+		int pv[] = new int[maxLength];
+		int n = 0;
+		
+		GameState state = new GameState(presentState);
+		long key = (presentState.getTurn() == BoardCellColor.WHITE) ? WHITE_ROOT_KEY : 0L;
+		while(move >= 0 && n < maxLength) {
+			pv[n++] = move;
+			state.makeMove(move, null);
+			if(state.getTurn() == null) break;
+			
+			move = TranspositionTable.getMove(transpositionTable.probe(state.getHash() ^ key));
+			if(move >= 0 && (state.getBoard().getValidMovesMask(state.getTurn()) & (1L << move)) == 0)
+				move = -1;
+		}
+		
+		int result[] = new int[n];
+		System.arraycopy(pv, 0, result, 0, n);
+		return result;
+	}
+	
+	public static interface SearchListener extends EventListener {
+		/**
+		 * Statistics of a search in progress (sent periodically,
+		 * by the thread running the search)
+		 *
+		 * @param player
+		 * @param statistics
 		 */
-		return board.conformCell(nextState.getLastMove());
+		public void searchProgress(AlphaBetaPlayer player, SearchStatistics statistics);
 	}
-}
\ No newline at end of file
+}
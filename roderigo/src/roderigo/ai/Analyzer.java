@@ -0,0 +1,424 @@
+package roderigo.ai;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EventListener;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import roderigo.struct.Board;
+import roderigo.struct.BoardCell;
+import roderigo.struct.GameState;
+
+/**
+ * Multi-PV analysis of a position: unlike <code>AlphaBetaPlayer.getBestMove</code>,
+ * which only proves that the best move is better than the others, every valid
+ * move is searched with a full window, so that each move gets an exact score.
+ *
+ * Moves are searched by iterative deepening; after each depth the moves,
+ * ranked by score, are sent to the <code>AnalysisListener</code> (if set).
+ * With few empty cells left (see <code>AlphaBetaPlayer.setSolverEmpties</code>),
+ * after a shallow search the moves are solved by an <code>EndgameSolver</code>.
+ *
+ * The moves of each depth are searched in parallel, by a pool of threads, each
+ * with its own worker player; the workers share the transposition table and
+ * the evaluation cache of the player given to the constructor, so the analysis
+ * and the player's searches benefit from each other.
+ *
+ * The analysis can be stopped by <code>cancel</code> or by the time limit
+ * (the result of the last completed depth is returned), or by <code>abort</code>
+ * (<code>analyze</code> throws <code>AbortException</code>).
+ *
+ * @author Federico Ferri
+ *
+ */
+public class Analyzer {
+	/**
+	 * Depth of the search before solving the moves
+	 */
+	private static final int SOLVER_PRESEARCH_DEPTH = 4;
+	
+	/**
+	 * Maximum length of the principal variations
+	 */
+	private static final int MAX_PV_LENGTH = 16;
+	
+	private final AlphaBetaPlayer player;
+	
+	private int threads = Runtime.getRuntime().availableProcessors();
+	private int maxDepth = AlphaBetaPlayer.DEFAULT_DEPTH;
+	private long timeLimit = 0;
+	
+	/**
+	 * The thread pool and the idle workers (created first time they are needed)
+	 */
+	private ExecutorService executor = null;
+	private BlockingQueue<AlphaBetaPlayer> idleWorkers = null;
+	private List<AlphaBetaPlayer> workers = new ArrayList<AlphaBetaPlayer>();
+	
+	private volatile boolean abort = false;
+	private volatile boolean cancelled = false;
+	
+	private volatile AnalysisListener analysisListener = null;
+	
+	private final AtomicLong nodes = new AtomicLong();
+	private int completedDepth = 0;
+	
+	/**
+	 * @param player The player whose evaluation (genome or pattern tables) is used
+	 */
+	public Analyzer(AlphaBetaPlayer player) {
+		this.player = player;
+	}
+	
+	public AlphaBetaPlayer getPlayer() {
+		return player;
+	}
+	
+	public int getThreads() {
+		return threads;
+	}
+	
+	/**
+	 * @param threads Number of threads (and of moves searched at the same time)
+	 */
+	public synchronized void setThreads(int threads) {
+		if(threads < 1)
+			throw new RuntimeException("Invalid number of threads: " + threads);
+		
+		this.threads = threads;
+		shutdown();
+	}
+	
+	public int getMaxDepth() {
+		return maxDepth;
+	}
+	
+	public void setMaxDepth(int maxDepth) {
+		this.maxDepth = maxDepth;
+	}
+	
+	public long getTimeLimit() {
+		return timeLimit;
+	}
+	
+	/**
+	 * @param timeLimit Time limit of an analysis in milliseconds (0 for no limit)
+	 */
+	public void setTimeLimit(long timeLimit) {
+		this.timeLimit = timeLimit;
+	}
+	
+	public AnalysisListener getAnalysisListener() {
+		return analysisListener;
+	}
+	
+	public void setAnalysisListener(AnalysisListener analysisListener) {
+		this.analysisListener = analysisListener;
+	}
+	
+	/**
+	 * @return The number of nodes visited by the last analysis
+	 */
+	public long getNodeCount() {
+		return nodes.get();
+	}
+	
+	/**
+	 * @return The depth of the last completed iteration of the last analysis
+	 */
+	public int getCompletedDepth() {
+		return completedDepth;
+	}
+	
+	/**
+	 * Stop the analysis: <code>analyze</code> throws <code>AbortException</code>
+	 */
+	public synchronized void abort() {
+		abort = true;
+		for(AlphaBetaPlayer worker : workers)
+			worker.abort();
+	}
+	
+	/**
+	 * Stop the analysis: <code>analyze</code> returns the result of the last completed depth
+	 */
+	public synchronized void cancel() {
+		cancelled = true;
+		for(AlphaBetaPlayer worker : workers)
+			worker.cancel();
+	}
+	
+	/**
+	 * Stop the threads (they are started again by the next analysis)
+	 */
+	public synchronized void shutdown() {
+		if(executor == null) return;
+		
+		executor.shutdown();
+		executor = null;
+		idleWorkers = null;
+		workers = new ArrayList<AlphaBetaPlayer>();
+	}
+	
+	/**
+	 * Analyze a position
+	 *
+	 * @param presentState
+	 * @return The valid moves, best first
+	 * @throws AbortException
+	 */
+	public List<Line> analyze(GameState presentState) throws AbortException {
+		long startTime = System.currentTimeMillis();
+		long deadline = (timeLimit > 0) ? startTime + timeLimit : 0;
+		
+		abort = false;
+		cancelled = false;
+		nodes.set(0);
+		completedDepth = 0;
+		
+		List<Line> lines = new ArrayList<Line>();
+		if(presentState.getTurn() == null) return lines;
+		
+		GameState state = new GameState(presentState);
+		Board board = state.getBoard();
+		int empty = Long.bitCount(board.getPiecesMask(null));
+		boolean solving = empty - 1 <= player.getSolverEmpties();
+		int lastDepth = solving ? Math.min(empty, SOLVER_PRESEARCH_DEPTH) : Math.min(empty, maxDepth);
+		
+		int moves[] = new int[Long.bitCount(board.getValidMovesMask(state.getTurn()))];
+		long m = board.getValidMovesMask(state.getTurn());
+		for(int i = 0; i < moves.length; i++, m &= m - 1)
+			moves[i] = Long.numberOfTrailingZeros(m);
+		
+		startWorkers(deadline);
+		
+		long lastTime = 0;
+		for(int depth = 1; depth <= lastDepth + (solving ? 1 : 0); depth++) {
+			long iterationStartTime = System.currentTimeMillis();
+			
+			// the moves are searched best first (as ranked by the previous depth):
+			for(int i = 0; i < lines.size(); i++)
+				moves[i] = lines.get(i).getMove();
+			
+			List<Line> result = searchMoves(state, moves, (depth > lastDepth) ? 0 : depth);
+			if(result.size() < moves.length) {
+				// stopped: keep the previous depth, if any
+				if(lines.isEmpty()) lines = result;
+				break;
+			}
+			
+			lines = result;
+			completedDepth = (depth > lastDepth) ? empty : depth;
+			
+			AnalysisListener l = analysisListener;
+			if(l != null) l.analysisProgress(this, Collections.unmodifiableList(lines));
+			
+			// all the moves have been searched to the end of the game:
+			boolean exact = true;
+			for(Line line : lines)
+				exact &= line.isExact();
+			if(exact) break;
+			
+			// don't start a depth which would not end in time:
+			long iterationTime = System.currentTimeMillis() - iterationStartTime;
+			double growth = (lastTime > 0) ? Math.max(2.0, Math.min(16.0, (double) iterationTime / lastTime)) : 4.0;
+			lastTime = Math.max(1, iterationTime);
+			if(deadline > 0 && System.currentTimeMillis() + iterationTime * growth > deadline)
+				break;
+		}
+		
+		if(abort) throw new AbortException();
+		return lines;
+	}
+	
+	/**
+	 * Create the thread pool and the workers, if needed, and prepare the workers
+	 */
+	private synchronized void startWorkers(long deadline) {
+		if(executor == null) {
+			executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+				@Override public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "Analyzer");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+			idleWorkers = new LinkedBlockingQueue<AlphaBetaPlayer>();
+			workers = new ArrayList<AlphaBetaPlayer>();
+			for(int i = 0; i < threads; i++) {
+				AlphaBetaPlayer worker = player.createWorker();
+				workers.add(worker);
+				idleWorkers.add(worker);
+			}
+		}
+		
+		for(AlphaBetaPlayer worker : workers) {
+			player.prepareWorker(worker);
+			worker.startAnalysis(deadline);
+		}
+		
+		// abort or cancel called while the workers were prepared:
+		if(abort) abort();
+		if(cancelled) cancel();
+	}
+	
+	/**
+	 * Search all the moves at the given depth, in parallel
+	 *
+	 * @param depth The depth, or 0 to solve the moves
+	 * @return The moves whose search has completed, best first
+	 * @throws AbortException
+	 */
+	private List<Line> searchMoves(final GameState state, int moves[], final int depth) throws AbortException {
+		final BlockingQueue<AlphaBetaPlayer> idle = idleWorkers;
+		
+		List<Future<Line>> futures = new ArrayList<Future<Line>>();
+		for(final int move : moves) {
+			futures.add(executor.submit(new Callable<Line>() {
+				@Override public Line call() throws Exception {
+					AlphaBetaPlayer worker = idle.take();
+					try {
+						return searchMove(worker, state, move, depth);
+					} finally {
+						idle.put(worker);
+					}
+				}
+			}));
+		}
+		
+		List<Line> lines = new ArrayList<Line>();
+		boolean interrupted = false;
+		for(Future<Line> future : futures) {
+			while(true) {
+				try {
+					Line line = future.get();
+					if(line != null) lines.add(line);
+					break;
+				} catch(InterruptedException e) {
+					interrupted = true;
+					abort();
+				} catch(ExecutionException e) {
+					throw new RuntimeException(e.getCause());
+				}
+			}
+		}
+		if(interrupted) Thread.currentThread().interrupt();
+		
+		if(abort) throw new AbortException();
+		Collections.sort(lines);
+		return lines;
+	}
+	
+	/**
+	 * Search a move with a worker
+	 *
+	 * @return The result, or null if the search has been stopped
+	 */
+	private Line searchMove(AlphaBetaPlayer worker, GameState state, int move, int depth) {
+		try {
+			int score;
+			boolean exact;
+			if(depth == 0) {
+				score = worker.solveMove(state, move);
+				exact = true;
+			} else {
+				score = worker.searchMove(state, move, depth);
+				exact = !worker.isDepthLimitReached();
+			}
+			
+			// the solver does not store its moves in the transposition table:
+			int pv[] = worker.getPrincipalVariation(state, move, (depth == 0) ? 1 : Math.min(MAX_PV_LENGTH, depth));
+			BoardCell cell = state.getBoard().get(move);
+			return new Line(move, BoardCell.getRowColumnString(cell.row, cell.col), score, depth, exact, pv);
+		} catch(AbortException e) {
+			return null;
+		} finally {
+			nodes.addAndGet(worker.getNodeCount());
+		}
+	}
+	
+	/**
+	 * The result of the analysis of a move
+	 */
+	public static final class Line implements Comparable<Line> {
+		private final int move;
+		private final String name;
+		private final int score;
+		private final int depth;
+		private final boolean exact;
+		private final int pv[];
+		
+		private Line(int move, String name, int score, int depth, boolean exact, int pv[]) {
+			this.move = move;
+			this.name = name;
+			this.score = score;
+			this.depth = depth;
+			this.exact = exact;
+			this.pv = pv;
+		}
+		
+		/**
+		 * @return The move (cell index)
+		 */
+		public int getMove() {
+			return move;
+		}
+		
+		/**
+		 * @return The value of the move for the player to move
+		 *         (the same scale as <code>BoardEvaluation</code>)
+		 */
+		public int getScore() {
+			return score;
+		}
+		
+		/**
+		 * @return The depth of the search (0 if the move has been solved)
+		 */
+		public int getDepth() {
+			return depth;
+		}
+		
+		/**
+		 * @return <code>true</code> if the score is the final result of the game
+		 *         (times <code>BoardEvaluation.GAME_END_WEIGHT</code>) with perfect play
+		 */
+		public boolean isExact() {
+			return exact;
+		}
+		
+		/**
+		 * @return The expected continuation (cell indexes), starting with the move
+		 */
+		public int[] getPrincipalVariation() {
+			return pv.clone();
+		}
+		
+		@Override public int compareTo(Line o) {
+			return (score > o.score) ? -1 : (score < o.score) ? 1 : 0;
+		}
+		
+		@Override public String toString() {
+			return name + " " + score + (exact ? " (exact)" : " (depth " + depth + ")");
+		}
+	}
+	
+	public static interface AnalysisListener extends EventListener {
+		/**
+		 * Called after each completed depth of an analysis
+		 *
+		 * @param analyzer
+		 * @param lines The valid moves, best first
+		 */
+		public void analysisProgress(Analyzer analyzer, List<Line> lines);
+	}
+}
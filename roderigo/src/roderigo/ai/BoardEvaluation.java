@@ -19,12 +19,18 @@ import roderigo.struct.BoardCellSet;
  * <li>Edges
  * <li>Partial influence map (only A, B, C, X cells)
  * <li>Piece count
+ * <li>Stable pieces
  * </ul>
  * 
  * @author Federico Ferri
  *
  */
 public class BoardEvaluation {	
+	/**
+	 * At the end of the game, the value is the difference of pieces times this weight
+	 */
+	public static final int GAME_END_WEIGHT = 10000000;
+	
 	private int value[];
 	
 	private boolean gameEnd;
@@ -44,6 +50,10 @@ public class BoardEvaluation {
 		value[Genome.Bit.ownPieceCount.ordinal()] = allPieces.piecesOfColor(color).size();
 		value[Genome.Bit.opponentPieceCount.ordinal()] = allPieces.piecesOfColor(color.opposite()).size();
 		
+		BoardCellSet stablePieces = board.getStablePieces();
+		value[Genome.Bit.ownStablePieceCount.ordinal()] = stablePieces.piecesOfColor(color).size();
+		value[Genome.Bit.opponentStablePieceCount.ordinal()] = stablePieces.piecesOfColor(color.opposite()).size();
+		
 		BoardCellSet corners = board.getCellsOfType(BoardCell.Type.CORNER);
 		value[Genome.Bit.ownCorners.ordinal()] = corners.piecesOfColor(color).size();
 		value[Genome.Bit.opponentCorners.ordinal()] = corners.piecesOfColor(color.opposite()).size();
@@ -69,7 +79,7 @@ public class BoardEvaluation {
 	
 	public int getValue(Genome g) {
 		if(gameEnd) {
-			return 10000000 * (value[Genome.Bit.ownPieceCount.ordinal()] - value[Genome.Bit.opponentPieceCount.ordinal()]);
+			return GAME_END_WEIGHT * (value[Genome.Bit.ownPieceCount.ordinal()] - value[Genome.Bit.opponentPieceCount.ordinal()]);
 		} else {
 			int v = 0;
 			for(Bit bit : Genome.Bit.values())
@@ -0,0 +1,344 @@
+package roderigo.ai;
+
+import roderigo.struct.BitBoard;
+import roderigo.struct.BoardGeometry;
+
+/**
+ * Perfect play search of the last moves of the game, used by
+ * <code>AlphaBetaPlayer</code> when few empty cells are left.
+ *
+ * Positions are given as the masks of the pieces of the player to move
+ * (<code>own</code>) and of the opponent (<code>opp</code>); values are the
+ * final difference of pieces (own - opp, empty cells are not counted, as in
+ * <code>BoardEvaluation</code>), or just its sign in win/loss/draw mode.
+ *
+ * Moves are searched:
+ *  - with more than 6 empty cells, fastest first: moves leaving the opponent
+ *    fewer replies first (corners weighted as more replies, since they
+ *    are taken anyway), then moves in regions with an odd number of empty cells;
+ *  - with 5 or 6 empty cells, in odd regions first (parity);
+ *  - with 4 or less empty cells, looping directly on the empty cells, without
+ *    generating moves (the last cell is played without searching).
+ *
+ * Regions are the four quadrants of the board: the player who moves last in
+ * a region usually gains there, so moving in odd regions keeps the parity.
+ *
+ * @author Federico Ferri
+ *
+ */
+public class EndgameSolver {
+	/**
+	 * Solve for the exact difference of pieces, or just for win/loss/draw
+	 */
+	public static final int EXACT = 0;
+	public static final int WIN_LOSS_DRAW = 1;
+	
+	private static final int FASTEST_FIRST_EMPTIES = 7;
+	
+	private final BoardGeometry geometry;
+	
+	/**
+	 * Used as move generator (only its geometry is used)
+	 */
+	private final BitBoard moveGenerator;
+	
+	/**
+	 * Quadrant of each cell, and the cells of each quadrant
+	 */
+	private final int region[];
+	private final long regionMask[] = new long[4];
+	
+	/**
+	 * Move lists and sort keys for each number of empty cells
+	 */
+	private final int moveList[][];
+	private final int keyList[][];
+	
+	private long nodes = 0;
+	private volatile long nodeLimit = 0;
+	private volatile long deadline = 0;
+	private volatile boolean abort = false;
+	private boolean budgetExhausted = false;
+	
+	private int bestMove = -1;
+	
+	public EndgameSolver(BoardGeometry geometry) {
+		this.geometry = geometry;
+		moveGenerator = new BitBoard(geometry);
+		
+		int rows = geometry.getNumRows(), cols = geometry.getNumColumns();
+		region = new int[geometry.getSize()];
+		for(int r = 0; r < rows; r++) {
+			for(int c = 0; c < cols; c++) {
+				int i = geometry.index(r, c);
+				region[i] = (r < rows / 2 ? 0 : 2) + (c < cols / 2 ? 0 : 1);
+				regionMask[region[i]] |= 1L << i;
+			}
+		}
+		
+		moveList = new int[geometry.getSize() + 1][geometry.getSize()];
+		keyList = new int[geometry.getSize() + 1][geometry.getSize()];
+	}
+	
+	public BoardGeometry getGeometry() {
+		return geometry;
+	}
+	
+	/**
+	 * Stop the search: <code>solve</code> throws an <code>AbortException</code>
+	 */
+	public void abort() {
+		abort = true;
+	}
+	
+	/**
+	 * Prepare the next call to <code>solve</code>: set its budget
+	 * (and forget a previous call to <code>abort</code>)
+	 *
+	 * @param deadline Time (as in <code>System.currentTimeMillis()</code>) when
+	 *                 the search has to stop (0 for no limit)
+	 * @param nodeLimit Limit of searched nodes (0 for no limit)
+	 */
+	public void setBudget(long deadline, long nodeLimit) {
+		this.deadline = deadline;
+		this.nodeLimit = nodeLimit;
+		nodes = 0;
+		abort = false;
+	}
+	
+	/**
+	 * Change the budget of the running search (can be called by any thread)
+	 *
+	 * @param deadline Time when the search has to stop (0 for no limit)
+	 * @param nodeLimit Limit of nodes searched from now on (0 for no limit)
+	 */
+	public void updateBudget(long deadline, long nodeLimit) {
+		this.deadline = deadline;
+		this.nodeLimit = (nodeLimit > 0) ? nodes + nodeLimit : 0; // nodes is just about right
+	}
+	
+	/**
+	 * @return <code>true</code> if the last search has been stopped because the budget was exhausted
+	 */
+	public boolean isBudgetExhausted() {
+		return budgetExhausted;
+	}
+	
+	/**
+	 * @return The number of nodes visited by the last search
+	 */
+	public long getNodeCount() {
+		return nodes;
+	}
+	
+	/**
+	 * @return The best move (cell index) found by the last search,
+	 *         or -1 if the player to move has to pass
+	 */
+	public int getBestMove() {
+		return bestMove;
+	}
+	
+	/**
+	 * Solve a position
+	 *
+	 * @param own Pieces of the player to move
+	 * @param opp Pieces of the opponent
+	 * @param mode EXACT or WIN_LOSS_DRAW
+	 * @return The final difference of pieces with perfect play (in win/loss/draw
+	 *         mode, a value with the same sign); the best move is in <code>getBestMove()</code>
+	 * @throws AbortException
+	 */
+	public int solve(long own, long opp, int mode) throws AbortException {
+		nodes = 0;
+		budgetExhausted = false;
+		bestMove = -1;
+		
+		int alpha = (mode == WIN_LOSS_DRAW) ? -1 : -geometry.getSize();
+		int beta = (mode == WIN_LOSS_DRAW) ? 1 : geometry.getSize();
+		
+		long empty = geometry.getFullMask() & ~(own | opp);
+		int n = Long.bitCount(empty);
+		
+		long moves = moveGenerator.validMoves(own, opp);
+		if(moves == 0) return search(own, opp, alpha, beta, n, parity(empty));
+		
+		int count = sortMoves(moves, own, opp, n, parity(empty));
+		int list[] = moveList[n];
+		int v = Integer.MIN_VALUE;
+		for(int i = 0; i < count; i++) {
+			int move = list[i];
+			long f = moveGenerator.flips(move, own, opp);
+			long m = 1L << move;
+			int value = -search(opp & ~f, own | f | m, -beta, -Math.max(alpha, v), n - 1, parity(empty & ~m));
+			if(value > v) {
+				v = value;
+				bestMove = move;
+				if(v >= beta) break;
+			}
+		}
+		return v;
+	}
+	
+	private int parity(long empty) {
+		int p = 0;
+		for(int r = 0; r < 4; r++)
+			if((Long.bitCount(empty & regionMask[r]) & 1) != 0)
+				p |= 1 << r;
+		return p;
+	}
+	
+	private void visit() throws AbortException {
+		if(abort) throw new AbortException();
+		if((++nodes & 4095) == 0) {
+			if((nodeLimit > 0 && nodes >= nodeLimit) || (deadline > 0 && System.currentTimeMillis() >= deadline)) {
+				budgetExhausted = true;
+				throw new AbortException();
+			}
+		}
+	}
+	
+	/**
+	 * Final value of a position where no player can move
+	 */
+	private static int finalValue(long own, long opp) {
+		return Long.bitCount(own) - Long.bitCount(opp);
+	}
+	
+	/**
+	 * Negamax alpha-beta search
+	 *
+	 * @param own Pieces of the player to move
+	 * @param opp Pieces of the opponent
+	 * @param alpha
+	 * @param beta
+	 * @param n Number of empty cells
+	 * @param parity Bit r is set if quadrant r has an odd number of empty cells
+	 * @return The value for the player to move
+	 * @throws AbortException
+	 */
+	private int search(long own, long opp, int alpha, int beta, int n, int parity) throws AbortException {
+		if(n <= 4) return searchLast(own, opp, alpha, beta, n, false);
+		
+		visit();
+		
+		long moves = moveGenerator.validMoves(own, opp);
+		if(moves == 0) {
+			if(moveGenerator.validMoves(opp, own) == 0)
+				return finalValue(own, opp);
+			return -search(opp, own, -beta, -alpha, n, parity);
+		}
+		
+		int count = sortMoves(moves, own, opp, n, parity);
+		int list[] = moveList[n];
+		int v = Integer.MIN_VALUE;
+		for(int i = 0; i < count; i++) {
+			int move = list[i];
+			long f = moveGenerator.flips(move, own, opp);
+			long m = 1L << move;
+			int a = Math.max(alpha, v), value;
+			if(i == 0) {
+				value = -search(opp & ~f, own | f | m, -beta, -a, n - 1, parity ^ (1 << region[move]));
+			} else {
+				// zero window first: most moves are just worse than the first one
+				value = -search(opp & ~f, own | f | m, -a - 1, -a, n - 1, parity ^ (1 << region[move]));
+				if(value > a && value < beta)
+					value = -search(opp & ~f, own | f | m, -beta, -value, n - 1, parity ^ (1 << region[move]));
+			}
+			if(value > v) {
+				v = value;
+				if(v >= beta) return v;
+			}
+		}
+		return v;
+	}
+	
+	/**
+	 * Sort the moves of a node into <code>moveList[n]</code>
+	 *
+	 * @return The number of moves
+	 */
+	private int sortMoves(long moves, long own, long opp, int n, int parity) {
+		int list[] = moveList[n], key[] = keyList[n];
+		long corners = geometry.getCornerMask();
+		
+		int count = 0;
+		for(; moves != 0; moves &= moves - 1) {
+			int move = Long.numberOfTrailingZeros(moves);
+			int k = ((parity >> region[move]) & 1) != 0 ? 0 : 1;
+			if(n >= FASTEST_FIRST_EMPTIES) {
+				long f = moveGenerator.flips(move, own, opp);
+				long replies = moveGenerator.validMoves(opp & ~f, own | f | (1L << move));
+				k += 4 * (Long.bitCount(replies) + Long.bitCount(replies & corners));
+			}
+			
+			// insertion sort, lower keys first:
+			int j = count++;
+			for(; j > 0 && key[j - 1] > k; j--) {
+				list[j] = list[j - 1];
+				key[j] = key[j - 1];
+			}
+			list[j] = move;
+			key[j] = k;
+		}
+		return count;
+	}
+	
+	/**
+	 * Search of the last 4 (or less) empty cells, playing directly on the
+	 * empty cells in parity order instead of generating the moves
+	 *
+	 * @param passed Whether the opponent has just passed
+	 */
+	private int searchLast(long own, long opp, int alpha, int beta, int n, boolean passed) throws AbortException {
+		visit();
+		
+		long empty = geometry.getFullMask() & ~(own | opp);
+		if(n == 0) return finalValue(own, opp);
+		if(n == 1) return searchLast1(own, opp, Long.numberOfTrailingZeros(empty));
+		
+		// cells in odd quadrants first:
+		long odd = 0L;
+		for(int r = 0; r < 4; r++)
+			if((Long.bitCount(empty & regionMask[r]) & 1) != 0)
+				odd |= empty & regionMask[r];
+		
+		int v = Integer.MIN_VALUE;
+		for(int pass = 0; pass < 2; pass++) {
+			for(long e = (pass == 0) ? odd : empty & ~odd; e != 0; e &= e - 1) {
+				int move = Long.numberOfTrailingZeros(e);
+				long f = moveGenerator.flips(move, own, opp);
+				if(f == 0) continue;
+				
+				int value = -searchLast(opp & ~f, own | f | (1L << move), -beta, -Math.max(alpha, v), n - 1, false);
+				if(value > v) {
+					v = value;
+					if(v >= beta) return v;
+				}
+			}
+		}
+		
+		if(v == Integer.MIN_VALUE) {
+			if(passed) return finalValue(own, opp);
+			return -searchLast(opp, own, -beta, -alpha, n, true);
+		}
+		return v;
+	}
+	
+	/**
+	 * The last empty cell: whoever can play it does (the player to move first)
+	 */
+	private int searchLast1(long own, long opp, int move) {
+		nodes++;
+		
+		int diff = Long.bitCount(own) - Long.bitCount(opp);
+		
+		long f = moveGenerator.flips(move, own, opp);
+		if(f != 0) return diff + 2 * Long.bitCount(f) + 1;
+		
+		f = moveGenerator.flips(move, opp, own);
+		if(f != 0) return diff - 2 * Long.bitCount(f) - 1;
+		
+		return diff;
+	}
+}
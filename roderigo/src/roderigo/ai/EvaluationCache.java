@@ -0,0 +1,91 @@
+package roderigo.ai;
+
+/**
+ * Lossy cache of leaf evaluations, indexed by position hash, used by
+ * <code>AlphaBetaPlayer</code> to avoid evaluating again leaves reached by
+ * different move orders (or searched again with a different window).
+ *
+ * Unlike the <code>TranspositionTable</code>, the cache is direct-mapped:
+ * each position has a single entry, which is always replaced; the key and
+ * the data of an entry are next to each other in the same array, so that
+ * a probe touches a single cache line.
+ *
+ * Each entry holds the score and the id of the evaluation function which
+ * computed it (see <code>Genome.getId()</code>), so that the cache does not
+ * need to be cleared when the evaluation changes. As in the transposition
+ * table, the stored key is xored with the data, so the cache can be shared
+ * by the threads of a parallel search without locking: an entry written by
+ * two threads at the same time is mixed up, and then just ignored.
+ *
+ * @author Federico Ferri
+ *
+ */
+public class EvaluationCache {
+	/**
+	 * The cache pays off only as long as it fits in the processor cache:
+	 * a miss in memory costs about as much as evaluating the leaf
+	 */
+	public static final int DEFAULT_SIZE_BITS = 12;
+	
+	/**
+	 * Key (at even indexes) and data (at odd indexes) of each entry
+	 */
+	private final long entries[];
+	private final int mask;
+	
+	/**
+	 * @param sizeBits The cache will have 2^sizeBits entries
+	 */
+	public EvaluationCache(int sizeBits) {
+		if(sizeBits < 1 || sizeBits > 28)
+			throw new RuntimeException("Invalid evaluation cache size: 2^" + sizeBits);
+		
+		entries = new long[2 << sizeBits];
+		mask = (1 << sizeBits) - 1;
+	}
+	
+	/**
+	 * @return The number of entries
+	 */
+	public int size() {
+		return entries.length / 2;
+	}
+	
+	public void clear() {
+		for(int i = 0; i < entries.length; i++)
+			entries[i] = 0L;
+	}
+	
+	/**
+	 * @param hash The position hash
+	 * @param id The id of the evaluation function
+	 * @return The entry of the given position (see <code>getScore</code>),
+	 *         or 0 if not found
+	 */
+	public long probe(long hash, int id) {
+		int i = ((int) hash & mask) << 1;
+		
+		long d = entries[i + 1];
+		if((entries[i] ^ d) == hash && (int) (d >>> 32) == id && d != 0) return d;
+		
+		return 0L;
+	}
+	
+	/**
+	 * @param hash The position hash
+	 * @param id The id of the evaluation function
+	 * @param score
+	 */
+	public void store(long hash, int id, int score) {
+		int i = ((int) hash & mask) << 1;
+		
+		long d = ((long) id << 32) | (score & 0xFFFFFFFFL);
+		
+		entries[i] = hash ^ d;
+		entries[i + 1] = d;
+	}
+	
+	public static int getScore(long entry) {
+		return (int) entry;
+	}
+}
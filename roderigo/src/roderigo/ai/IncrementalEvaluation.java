@@ -0,0 +1,139 @@
+package roderigo.ai;
+
+import roderigo.ai.genetic.Genome;
+import roderigo.struct.BitBoard;
+import roderigo.struct.Board;
+import roderigo.struct.BoardCell;
+import roderigo.struct.BoardCellColor;
+import roderigo.struct.BoardGeometry;
+import roderigo.struct.GameState;
+
+/**
+ * Same evaluation as <code>BoardEvaluation.getValue(Genome)</code>, for use
+ * in the search, where a board is evaluated at every leaf.
+ *
+ * The counts of pieces by cell type (all, corners, X, C, A and B cells) are kept
+ * as running totals, updated by <code>makeMove</code> and <code>unmakeMove</code>
+ * with the masks of the placed and flipped pieces; mobility, border and stable
+ * pieces are counted on the masks of the <code>BitBoard</code> (where valid moves
+ * are generated bit-parallel, and the border is maintained incrementally).
+ * No cell set is allocated.
+ *
+ * The value is computed with the weights of a <code>Genome</code>.
+ *
+ * @author Federico Ferri
+ *
+ */
+public class IncrementalEvaluation implements SearchEvaluation {
+	/**
+	 * Cell classes whose pieces are counted
+	 */
+	private static final int ALL = 0, CORNERS = 1, XCELLS = 2, CCELLS = 3, ABCELLS = 4;
+	
+	private final BoardGeometry geometry;
+	
+	private final long classMask[] = new long[5];
+	
+	/**
+	 * Pieces of each color (by <code>BoardCellColor.ordinal()</code>) in each class
+	 */
+	private final int count[][] = new int[2][5];
+	
+	private Board board = null;
+	
+	private final Genome genome;
+	
+	public IncrementalEvaluation(BoardGeometry geometry, Genome genome) {
+		this.geometry = geometry;
+		this.genome = genome;
+		classMask[ALL] = geometry.getFullMask();
+		classMask[CORNERS] = geometry.getTypeMask(BoardCell.Type.CORNER);
+		classMask[XCELLS] = geometry.getTypeMask(BoardCell.Type.X);
+		classMask[CCELLS] = geometry.getTypeMask(BoardCell.Type.C);
+		classMask[ABCELLS] = geometry.getTypeMask(BoardCell.Type.A) | geometry.getTypeMask(BoardCell.Type.B);
+	}
+	
+	public BoardGeometry getGeometry() {
+		return geometry;
+	}
+	
+	public Genome getGenome() {
+		return genome;
+	}
+	
+	public void reset(Board board) {
+		this.board = board;
+		
+		long black = board.getPiecesMask(BoardCellColor.BLACK), white = board.getPiecesMask(BoardCellColor.WHITE);
+		for(int c = 0; c < classMask.length; c++) {
+			count[0][c] = Long.bitCount(black & classMask[c]);
+			count[1][c] = Long.bitCount(white & classMask[c]);
+		}
+	}
+	
+	public void makeMove(GameState.Undo u) {
+		update(u, 1);
+	}
+	
+	public void unmakeMove(GameState.Undo u) {
+		update(u, -1);
+	}
+	
+	private void update(GameState.Undo u, int sign) {
+		int own[] = count[u.getColor().ordinal()], opp[] = count[u.getColor().opposite().ordinal()];
+		long placed = 1L << u.getIndex(), flipped = u.getFlipped();
+		
+		for(int c = 0; c < classMask.length; c++) {
+			int f = Long.bitCount(flipped & classMask[c]);
+			own[c] += sign * (f + ((placed & classMask[c]) != 0 ? 1 : 0));
+			opp[c] -= sign * f;
+		}
+	}
+	
+	public int getValue(BoardCellColor color) {
+		return getValue(color, genome);
+	}
+	
+	/**
+	 * @param color The player for whom the board is evaluated
+	 * @param g
+	 * @return The same value as <code>new BoardEvaluation(board, color).getValue(g)</code>
+	 */
+	public int getValue(BoardCellColor color, Genome g) {
+		BitBoard bits = board.getBitBoard();
+		long ownPieces = bits.getPieces(color), oppPieces = bits.getPieces(color.opposite());
+		int own[] = count[color.ordinal()], opp[] = count[color.opposite().ordinal()];
+		
+		int ownMobility = Long.bitCount(bits.validMoves(ownPieces, oppPieces));
+		int oppMobility = Long.bitCount(bits.validMoves(oppPieces, ownPieces));
+		if(ownMobility == 0 && oppMobility == 0)
+			return BoardEvaluation.GAME_END_WEIGHT * (own[ALL] - opp[ALL]);
+		
+		long border = bits.getBorder();
+		
+		int v = ownMobility * g.get(Genome.Bit.ownMobility)
+			+ oppMobility * g.get(Genome.Bit.opponentMobility)
+			+ Long.bitCount(border & ownPieces) * g.get(Genome.Bit.ownBorderPieceCount)
+			+ Long.bitCount(border & oppPieces) * g.get(Genome.Bit.opponentBorderPieceCount)
+			+ own[ALL] * g.get(Genome.Bit.ownPieceCount)
+			+ opp[ALL] * g.get(Genome.Bit.opponentPieceCount)
+			+ own[CORNERS] * g.get(Genome.Bit.ownCorners)
+			+ opp[CORNERS] * g.get(Genome.Bit.opponentCorners)
+			+ own[XCELLS] * g.get(Genome.Bit.ownXcells)
+			+ opp[XCELLS] * g.get(Genome.Bit.opponentXcells)
+			+ own[CCELLS] * g.get(Genome.Bit.ownCcells)
+			+ opp[CCELLS] * g.get(Genome.Bit.opponentCcells)
+			+ own[ABCELLS] * g.get(Genome.Bit.ownABcells)
+			+ opp[ABCELLS] * g.get(Genome.Bit.opponentABcells);
+		
+		// stable pieces are the most expensive to find, and often not weighted:
+		int ownStableWeight = g.get(Genome.Bit.ownStablePieceCount), oppStableWeight = g.get(Genome.Bit.opponentStablePieceCount);
+		if(ownStableWeight != 0 || oppStableWeight != 0) {
+			long stable = bits.getStable();
+			v += Long.bitCount(stable & ownPieces) * ownStableWeight
+				+ Long.bitCount(stable & oppPieces) * oppStableWeight;
+		}
+		
+		return v;
+	}
+}
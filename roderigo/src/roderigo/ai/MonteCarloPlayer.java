@@ -0,0 +1,509 @@
+package roderigo.ai;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+import roderigo.struct.BitBoard;
+import roderigo.struct.Board;
+import roderigo.struct.BoardCell;
+import roderigo.struct.BoardCellColor;
+import roderigo.struct.GameState;
+
+/**
+ * Monte Carlo tree search (UCT) player: it needs no evaluation function,
+ * since positions are valued by the results of random games (playouts).
+ *
+ * Each playout descends the tree choosing at each node the child with the
+ * best upper confidence bound (UCB1) of its winning rate, expands the reached
+ * leaf (if it has been visited before), plays a random game from there on
+ * the masks of the pieces (with the move generator of <code>BitBoard</code>),
+ * and adds its result to the visited nodes. The most visited move is played.
+ *
+ * The tree is kept in arrays indexed by node (an arena of fixed capacity, see
+ * <code>setTreeSizeBits</code>): no object is allocated for a node. The children
+ * of a node are contiguous, so a node only stores the index of its first child
+ * and their number; the path of a playout is kept by its thread, so nodes don't
+ * link to their parents. When the arena is full, the tree is not expanded
+ * any more (playouts go on from its leaves).
+ *
+ * With more than one thread (see <code>setThreads</code>) all the threads run
+ * playouts on the same tree, without locking: counters are updated atomically,
+ * a node is expanded by the thread which marks it first (the others don't wait,
+ * and play out from the node), and a virtual loss is added to the nodes of the
+ * playouts in progress, so that the threads explore different paths.
+ *
+ * The search budget (see <code>setBudget</code>) and the hard time limit
+ * (see <code>setHardTimeLimit</code>) work as in <code>AlphaBetaPlayer</code>,
+ * and so do <code>abort</code> (which makes
+ * <code>getBestMove</code> throw <code>AbortException</code>) and
+ * <code>cancel</code> (which makes it play the best move found so far).
+ *
+ * @author Federico Ferri
+ *
+ */
+public class MonteCarloPlayer implements AIPlayer {
+	public static final int DEFAULT_TREE_SIZE_BITS = 20;
+	
+	/**
+	 * Number of playouts if no budget is set
+	 */
+	public static final long DEFAULT_PLAYOUTS = 100000;
+	
+	public static final double DEFAULT_EXPLORATION = 0.5;
+	
+	/**
+	 * Visits added to the nodes of a playout in progress (as losses)
+	 */
+	private static final int VIRTUAL_LOSS = 3;
+	
+	/**
+	 * Visits of a leaf before it is expanded
+	 */
+	private static final int EXPAND_VISITS = 1;
+	
+	/**
+	 * Number of playouts of a thread between two checks of the budget
+	 */
+	private static final int CHECK_INTERVAL = 16;
+	
+	/**
+	 * Value of the children field of a node: not expanded, or being expanded
+	 * (otherwise the field is the index of the first child, which is never 0)
+	 */
+	private static final int LEAF = 0;
+	private static final int EXPANDING = -1;
+	
+	/**
+	 * The tree (created first time it is needed): for each node, the move
+	 * leading to it (cell index) and the player who made it (0 for black,
+	 * 1 for white), its first child and number of children, its visits, its
+	 * wins (in half points, for the player who made the move) and its
+	 * virtual loss. The root is node 0.
+	 */
+	private int treeSizeBits = DEFAULT_TREE_SIZE_BITS;
+	private int capacity = 0;
+	private byte move[] = null;
+	private byte player[] = null;
+	private byte childCount[] = null;
+	private AtomicIntegerArray children = null;
+	private AtomicIntegerArray visits = null;
+	private AtomicIntegerArray wins = null;
+	private AtomicIntegerArray virtualLoss = null;
+	private final AtomicInteger size = new AtomicInteger();
+	
+	private int threads = 1;
+	private double exploration = DEFAULT_EXPLORATION;
+	
+	/**
+	 * Search budget for each move (zero means no limit):
+	 * time in milliseconds, and number of playouts
+	 */
+	private long timeLimit = 0;
+	private long playoutLimit = 0;
+	
+	private long hardTimeLimit = 0;
+	
+	private volatile long deadline = 0;
+	private volatile long hardDeadline = 0;
+	private volatile boolean abort = false;
+	private volatile boolean cancelled = false;
+	
+	private final AtomicLong playouts = new AtomicLong();
+	
+	/**
+	 * Move generator (only its geometry is used)
+	 */
+	private BitBoard moveGenerator = null;
+	
+	/**
+	 * The root position
+	 */
+	private long rootBlack, rootWhite;
+	private int rootTurn;
+	
+	public synchronized void abort() {
+		abort = true;
+	}
+	
+	public synchronized void cancel() {
+		cancelled = true;
+	}
+	
+	public void clearCancel() {
+		cancelled = false;
+	}
+	
+	public int getThreads() {
+		return threads;
+	}
+	
+	/**
+	 * @param threads Number of threads running playouts on the tree
+	 */
+	public void setThreads(int threads) {
+		if(threads < 1)
+			throw new RuntimeException("Invalid number of threads: " + threads);
+		
+		this.threads = threads;
+	}
+	
+	public int getTreeSizeBits() {
+		return treeSizeBits;
+	}
+	
+	/**
+	 * @param sizeBits The tree will have at most 2^sizeBits nodes (19 bytes each)
+	 */
+	public void setTreeSizeBits(int sizeBits) {
+		if(sizeBits < 4 || sizeBits > 28)
+			throw new RuntimeException("Invalid tree size: 2^" + sizeBits);
+		
+		treeSizeBits = sizeBits;
+		capacity = 0;
+	}
+	
+	public double getExploration() {
+		return exploration;
+	}
+	
+	/**
+	 * @param exploration The weight of the exploration term of UCB1
+	 *                    (the higher, the wider the tree)
+	 */
+	public void setExploration(double exploration) {
+		this.exploration = exploration;
+	}
+	
+	public long getTimeLimit() {
+		return timeLimit;
+	}
+	
+	public long getPlayoutLimit() {
+		return playoutLimit;
+	}
+	
+	/**
+	 * Set the search budget for each move (if both limits are zero,
+	 * <code>DEFAULT_PLAYOUTS</code> playouts are run)
+	 *
+	 * @param timeLimit Time limit in milliseconds (0 for no limit)
+	 * @param playoutLimit Limit of playouts (0 for no limit)
+	 */
+	public void setBudget(long timeLimit, long playoutLimit) {
+		this.timeLimit = timeLimit;
+		this.playoutLimit = playoutLimit;
+	}
+	
+	public long getHardTimeLimit() {
+		return hardTimeLimit;
+	}
+	
+	/**
+	 * Set a time limit for each move which, unlike the budget, applies also
+	 * when no budget is set (then the search stops after
+	 * <code>DEFAULT_PLAYOUTS</code> playouts, or at the limit if earlier)
+	 *
+	 * @param hardTimeLimit Time limit in milliseconds (0 for no limit)
+	 */
+	public void setHardTimeLimit(long hardTimeLimit) {
+		this.hardTimeLimit = hardTimeLimit;
+	}
+	
+	/**
+	 * @return The number of playouts of the last search
+	 */
+	public long getPlayoutCount() {
+		return playouts.get();
+	}
+	
+	/**
+	 * @return The number of nodes of the tree of the last search
+	 */
+	public int getTreeSize() {
+		return Math.min(size.get(), capacity);
+	}
+	
+	public BoardCell getBestMove(GameState presentState) throws AbortException {
+		Board board = presentState.getBoard();
+		long moves = (presentState.getTurn() == null) ? 0 : board.getValidMovesMask(presentState.getTurn());
+		if(Long.bitCount(moves) <= 1) {
+			cancelled = false;
+			
+			// no move (game over, or the player has to pass), or only one:
+			return (moves == 0) ? null : board.get(Long.numberOfTrailingZeros(moves));
+		}
+		
+		abort = false;
+		long now = System.currentTimeMillis();
+		deadline = (timeLimit > 0) ? now + timeLimit : 0;
+		hardDeadline = (hardTimeLimit > 0) ? now + hardTimeLimit : 0;
+		playouts.set(0);
+		
+		prepareSearch(presentState);
+		
+		Thread helperThreads[] = new Thread[threads - 1];
+		for(int i = 0; i < helperThreads.length; i++) {
+			final long seed = System.nanoTime() + (i + 1) * 0x9e3779b97f4a7c15L;
+			helperThreads[i] = new Thread() {
+				@Override public void run() {
+					runPlayouts(seed);
+				}
+			};
+			helperThreads[i].start();
+		}
+		
+		try {
+			runPlayouts(System.nanoTime());
+		} finally {
+			// the helpers stop by the same budget (or by abort or cancel):
+			boolean interrupted = false;
+			for(int i = 0; i < helperThreads.length; i++) {
+				while(helperThreads[i].isAlive()) {
+					try {
+						helperThreads[i].join();
+					} catch(InterruptedException e) {
+						interrupted = true;
+					}
+				}
+			}
+			if(interrupted) Thread.currentThread().interrupt();
+			cancelled = false;
+		}
+		
+		if(abort) throw new AbortException();
+		return board.get(getMostVisitedMove());
+	}
+	
+	/**
+	 * Set the root, and create the tree if needed
+	 */
+	private void prepareSearch(GameState presentState) {
+		Board board = presentState.getBoard();
+		
+		if(moveGenerator == null || moveGenerator.getGeometry() != board.getGeometry())
+			moveGenerator = new BitBoard(board.getGeometry());
+		
+		if(capacity != 1 << treeSizeBits) {
+			capacity = 1 << treeSizeBits;
+			move = new byte[capacity];
+			player = new byte[capacity];
+			childCount = new byte[capacity];
+			children = new AtomicIntegerArray(capacity);
+			visits = new AtomicIntegerArray(capacity);
+			wins = new AtomicIntegerArray(capacity);
+			virtualLoss = new AtomicIntegerArray(capacity);
+		}
+		
+		rootBlack = board.getPiecesMask(BoardCellColor.BLACK);
+		rootWhite = board.getPiecesMask(BoardCellColor.WHITE);
+		rootTurn = (presentState.getTurn() == BoardCellColor.BLACK) ? 0 : 1;
+		
+		initNode(0, -1, -1);
+		size.set(1);
+	}
+	
+	private void initNode(int node, int m, int p) {
+		move[node] = (byte) m;
+		player[node] = (byte) p;
+		childCount[node] = 0;
+		visits.set(node, 0);
+		wins.set(node, 0);
+		virtualLoss.set(node, 0);
+		children.set(node, LEAF);
+	}
+	
+	/**
+	 * Run playouts until the budget is exhausted (or the search is stopped)
+	 *
+	 * @param seed Seed of the random playouts of this thread
+	 */
+	private void runPlayouts(long seed) {
+		int path[] = new int[128];
+		long random[] = {seed == 0 ? 1 : seed};
+		long limit = (timeLimit <= 0 && playoutLimit <= 0) ? DEFAULT_PLAYOUTS : playoutLimit;
+		
+		while(!abort && !cancelled) {
+			for(int i = 0; i < CHECK_INTERVAL; i++)
+				playout(path, random);
+			
+			long n = playouts.addAndGet(CHECK_INTERVAL);
+			if(limit > 0 && n >= limit) break;
+			
+			long d = deadline, hd = hardDeadline;
+			if(d > 0 || hd > 0) {
+				long now = System.currentTimeMillis();
+				if((d > 0 && now >= d) || (hd > 0 && now >= hd)) break;
+			}
+		}
+	}
+	
+	/**
+	 * Descend the tree from the root, expand the reached leaf, play
+	 * a random game from there, and update the nodes of the path
+	 *
+	 * @param path Space for the path
+	 * @param random State of the random generator of the thread
+	 */
+	private void playout(int path[], long random[]) {
+		long pieces[] = {rootBlack, rootWhite};
+		int turn = rootTurn;
+		
+		int node = 0, n = 0;
+		path[n++] = node;
+		virtualLoss.addAndGet(node, VIRTUAL_LOSS);
+		
+		while(turn >= 0) {
+			int first = children.get(node);
+			if(first == LEAF && (node == 0 || visits.get(node) >= EXPAND_VISITS)
+					&& size.get() < capacity && children.compareAndSet(node, LEAF, EXPANDING))
+				first = expand(node, pieces, turn);
+			if(first <= LEAF) break;
+			
+			int child = select(node, first);
+			if(child < 0) break;
+			
+			node = child;
+			turn = play(pieces, move[node], turn);
+			path[n++] = node;
+			virtualLoss.addAndGet(node, VIRTUAL_LOSS);
+		}
+		
+		int result = (turn >= 0) ? randomGame(pieces, turn, random) : Long.signum(Long.bitCount(pieces[0]) - Long.bitCount(pieces[1]));
+		
+		// half points for black and for white:
+		int reward[] = {1 + result, 1 - result};
+		for(int i = 0; i < n; i++) {
+			node = path[i];
+			if(i > 0) wins.addAndGet(node, reward[player[node]]);
+			visits.incrementAndGet(node);
+			virtualLoss.addAndGet(node, -VIRTUAL_LOSS);
+		}
+	}
+	
+	/**
+	 * Create the children of a node (marked as EXPANDING by this thread)
+	 *
+	 * @return The index of the first child, or LEAF if the tree is full
+	 */
+	private int expand(int node, long pieces[], int turn) {
+		long moves = moveGenerator.validMoves(pieces[turn], pieces[1 - turn]);
+		int count = Long.bitCount(moves);
+		
+		int first = size.getAndAdd(count);
+		if(first + count > capacity) {
+			children.set(node, LEAF);
+			return LEAF;
+		}
+		
+		for(int i = 0; i < count; i++, moves &= moves - 1)
+			initNode(first + i, Long.numberOfTrailingZeros(moves), turn);
+		childCount[node] = (byte) count;
+		
+		// publish the children (after they are initialized):
+		children.set(node, first);
+		return first;
+	}
+	
+	/**
+	 * @return The child with the highest upper confidence bound (counting
+	 *         playouts in progress as losses); unvisited children first;
+	 *         -1 if the node has no children
+	 */
+	private int select(int node, int first) {
+		if(childCount[node] == 0) return -1;
+		
+		double logVisits = Math.log(Math.max(1, visits.get(node) + virtualLoss.get(node)));
+		
+		int best = first;
+		double bestValue = Double.NEGATIVE_INFINITY;
+		for(int c = first; c < first + childCount[node]; c++) {
+			int v = visits.get(c) + virtualLoss.get(c);
+			if(v == 0) return c;
+			
+			double value = wins.get(c) / (2.0 * v) + exploration * Math.sqrt(logVisits / v);
+			if(value > bestValue) {
+				bestValue = value;
+				best = c;
+			}
+		}
+		return best;
+	}
+	
+	/**
+	 * Make a move on the pieces masks
+	 *
+	 * @return The next player to move (-1 if the game is over)
+	 */
+	private int play(long pieces[], int index, int turn) {
+		long f = moveGenerator.flips(index, pieces[turn], pieces[1 - turn]);
+		pieces[turn] |= f | (1L << index);
+		pieces[1 - turn] &= ~f;
+		
+		if(moveGenerator.validMoves(pieces[1 - turn], pieces[turn]) != 0) return 1 - turn;
+		if(moveGenerator.validMoves(pieces[turn], pieces[1 - turn]) != 0) return turn;
+		return -1;
+	}
+	
+	/**
+	 * Play random moves until the end of the game
+	 *
+	 * @return 1 if black wins, -1 if white wins, 0 for a draw
+	 */
+	private int randomGame(long pieces[], int turn, long random[]) {
+		long own = pieces[turn], opp = pieces[1 - turn];
+		boolean passed = false;
+		
+		while(true) {
+			long moves = moveGenerator.validMoves(own, opp);
+			if(moves == 0) {
+				if(passed) break;
+				passed = true;
+			} else {
+				passed = false;
+				
+				// xorshift64*:
+				long r = random[0];
+				r ^= r >>> 12;
+				r ^= r << 25;
+				r ^= r >>> 27;
+				random[0] = r;
+				r *= 0x2545f4914f6cdd1dL;
+				
+				for(int k = (int) ((r >>> 32) * Long.bitCount(moves) >>> 32); k > 0; k--)
+					moves &= moves - 1;
+				int index = Long.numberOfTrailingZeros(moves);
+				
+				long f = moveGenerator.flips(index, own, opp);
+				own |= f | (1L << index);
+				opp &= ~f;
+			}
+			
+			long t = own;
+			own = opp;
+			opp = t;
+			turn = 1 - turn;
+		}
+		
+		int diff = Long.bitCount(own) - Long.bitCount(opp);
+		return (turn == 0) ? Long.signum(diff) : -Long.signum(diff);
+	}
+	
+	/**
+	 * @return The move of the most visited child of the root
+	 */
+	private int getMostVisitedMove() {
+		int first = children.get(0);
+		if(first <= LEAF) {
+			// not even expanded: any valid move
+			long moves = moveGenerator.validMoves(rootTurn == 0 ? rootBlack : rootWhite, rootTurn == 0 ? rootWhite : rootBlack);
+			return Long.numberOfTrailingZeros(moves);
+		}
+		
+		int best = first;
+		for(int c = first; c < first + childCount[0]; c++)
+			if(visits.get(c) > visits.get(best))
+				best = c;
+		return move[best];
+	}
+}
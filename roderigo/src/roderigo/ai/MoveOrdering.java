@@ -0,0 +1,185 @@
+package roderigo.ai;
+
+import java.util.Random;
+
+import roderigo.struct.BoardCell;
+import roderigo.struct.BoardGeometry;
+
+/**
+ * Order in which <code>AlphaBetaPlayer</code> searches the moves of a node
+ * (the sooner the best move is searched, the more alpha-beta prunes):
+ *
+ *  1. the hash move (best move found by a previous search of the node)
+ *  2. the killer moves of the ply (moves which caused a cutoff in sibling nodes)
+ *  3. corners, then the other cells, then X-squares; within each class,
+ *     moves with a higher history score (moves which caused cutoffs
+ *     anywhere in the tree, weighted by the depth of the cutoff) first
+ *
+ * Helper threads of a parallel search perturb the order (see <code>perturb</code>),
+ * so that they do not all search the same moves at the same time.
+ *
+ * @author Federico Ferri
+ *
+ */
+public class MoveOrdering {
+	private static final int HASH_MOVE_SCORE = Integer.MAX_VALUE;
+	private static final int KILLER_SCORE = 1 << 30;
+	private static final int CLASS_SHIFT = 26;
+	private static final int MAX_NOISE = 63;
+	private static final int MAX_HISTORY = (1 << CLASS_SHIFT) - 1 - MAX_NOISE;
+	
+	private final BoardGeometry geometry;
+	
+	/**
+	 * Static score of each cell: corners 2, X-squares 0, other cells 1
+	 */
+	private final int squareClass[];
+	
+	/**
+	 * Two killer moves for each ply (-1 if none)
+	 */
+	private int killers[][];
+	
+	/**
+	 * History score of each cell, for each player (BoardCellColor.toInt - 1)
+	 */
+	private final int history[][];
+	
+	/**
+	 * Random score added to each cell (zero if not perturbed)
+	 */
+	private final int noise[];
+	
+	/**
+	 * Move lists and scores for each ply
+	 */
+	private int moveList[][];
+	private int scoreList[][];
+	
+	public MoveOrdering(BoardGeometry geometry, int maxPly) {
+		this.geometry = geometry;
+		
+		int size = geometry.getSize();
+		squareClass = new int[size];
+		for(int i = 0; i < size; i++) {
+			BoardCell.Type t = geometry.getType(i);
+			squareClass[i] = (t == BoardCell.Type.CORNER) ? 2 : (t == BoardCell.Type.X) ? 0 : 1;
+		}
+		
+		history = new int[2][size];
+		noise = new int[size];
+		resize(maxPly);
+	}
+	
+	public BoardGeometry getGeometry() {
+		return geometry;
+	}
+	
+	/**
+	 * Add a small random score to each cell, which changes the order
+	 * of moves with close history scores
+	 *
+	 * @param seed
+	 */
+	public void perturb(long seed) {
+		Random rnd = new Random(seed);
+		for(int i = 0; i < noise.length; i++)
+			noise[i] = rnd.nextInt(MAX_NOISE + 1);
+	}
+	
+	/**
+	 * Make room for at least the given number of plies
+	 *
+	 * @param maxPly
+	 */
+	public void resize(int maxPly) {
+		if(killers != null && killers.length >= maxPly) return;
+		
+		killers = new int[maxPly][2];
+		moveList = new int[maxPly][geometry.getSize()];
+		scoreList = new int[maxPly][geometry.getSize()];
+		for(int k[] : killers)
+			k[0] = k[1] = -1;
+	}
+	
+	/**
+	 * Start a new search: killers are forgotten (plies are counted from
+	 * the root, which has changed) and history scores are aged
+	 */
+	public void newSearch() {
+		for(int k[] : killers)
+			k[0] = k[1] = -1;
+		for(int h[] : history)
+			for(int i = 0; i < h.length; i++)
+				h[i] >>= 2;
+	}
+	
+	/**
+	 * Sort the moves of a node
+	 *
+	 * @param moves The moves mask
+	 * @param hashMove The hash move (or -1)
+	 * @param ply The ply of the node
+	 * @param player The player to move (BoardCellColor.toInt - 1)
+	 * @return The number of moves; the sorted moves are in <code>getMoves(ply)</code>
+	 */
+	public int sort(long moves, int hashMove, int ply, int player) {
+		int list[] = moveList[ply], score[] = scoreList[ply];
+		int k0 = killers[ply][0], k1 = killers[ply][1];
+		int h[] = history[player];
+		
+		int n = 0;
+		for(; moves != 0; moves &= moves - 1) {
+			int move = Long.numberOfTrailingZeros(moves), s;
+			if(move == hashMove) s = HASH_MOVE_SCORE;
+			else if(move == k0) s = KILLER_SCORE + 1;
+			else if(move == k1) s = KILLER_SCORE;
+			else s = (squareClass[move] << CLASS_SHIFT) + h[move] + noise[move];
+			
+			// insertion sort (there are few moves):
+			int j = n++;
+			for(; j > 0 && score[j - 1] < s; j--) {
+				list[j] = list[j - 1];
+				score[j] = score[j - 1];
+			}
+			list[j] = move;
+			score[j] = s;
+		}
+		return n;
+	}
+	
+	/**
+	 * @param ply
+	 * @return The moves sorted by the last call to <code>sort(...)</code> for this ply
+	 */
+	public int[] getMoves(int ply) {
+		return moveList[ply];
+	}
+	
+	/**
+	 * Record a move which caused a cutoff
+	 *
+	 * @param move
+	 * @param ply The ply of the node
+	 * @param player The player to move (BoardCellColor.toInt - 1)
+	 * @param depth The remaining depth of the node
+	 */
+	public void cutoff(int move, int ply, int player, int depth) {
+		int k[] = killers[ply];
+		if(k[0] != move) {
+			k[1] = k[0];
+			k[0] = move;
+		}
+		
+		int h[] = history[player];
+		h[move] = Math.min(MAX_HISTORY, h[move] + depth * depth);
+	}
+	
+	public void clear() {
+		for(int k[] : killers)
+			k[0] = k[1] = -1;
+		for(int h[] : history)
+			for(int i = 0; i < h.length; i++)
+				h[i] = 0;
+	}
+}
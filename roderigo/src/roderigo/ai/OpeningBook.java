@@ -0,0 +1,229 @@
+package roderigo.ai;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import roderigo.struct.Board;
+import roderigo.struct.BoardGeometry;
+import roderigo.struct.GameState;
+
+/**
+ * Table of scored moves of known positions, played by <code>AlphaBetaPlayer</code>
+ * instead of searching (see <code>OpeningBookBuilder</code> for building one).
+ *
+ * Positions are stored in canonical form (see <code>Board.getPreferredTransform()</code>),
+ * keyed by <code>GameState.getCanonicalHash()</code>, so one entry covers all the
+ * symmetric positions; moves are stored as cell indexes of the canonical board.
+ * Scores are for the player to move (the higher, the better).
+ *
+ * Entries are kept in arrays sorted by key, so a lookup is a binary search.
+ * On disk, after a header (magic, rows, columns, number of entries) each entry
+ * takes 13 bytes: key (long), move (byte), score (int), big endian.
+ *
+ * @author Federico Ferri
+ *
+ */
+public class OpeningBook {
+	private static final int MAGIC = 0x52424b31; // "RBK1"
+	
+	private final BoardGeometry geometry;
+	
+	private long keys[] = new long[0];
+	private byte moves[] = new byte[0];
+	private int scores[] = new int[0];
+	private int size = 0;
+	
+	public OpeningBook(int rows, int cols) {
+		geometry = BoardGeometry.get(rows, cols);
+	}
+	
+	public int getNumRows() {
+		return geometry.getNumRows();
+	}
+	
+	public int getNumColumns() {
+		return geometry.getNumColumns();
+	}
+	
+	/**
+	 * @return The number of entries (scored moves)
+	 */
+	public int size() {
+		return size;
+	}
+	
+	private boolean accepts(GameState s) {
+		Board b = s.getBoard();
+		return s.getTurn() != null && b.getNumRows() == getNumRows() && b.getNumColumns() == getNumColumns();
+	}
+	
+	/**
+	 * @param key
+	 * @return The index of the first entry with the given key, or of the
+	 *         entry before which it would be inserted
+	 */
+	private int find(long key) {
+		int lo = 0, hi = size;
+		while(lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if(keys[mid] < key) lo = mid + 1;
+			else hi = mid;
+		}
+		return lo;
+	}
+	
+	/**
+	 * @param s
+	 * @return <code>true</code> if the book has moves for the given state
+	 */
+	public boolean contains(GameState s) {
+		if(!accepts(s)) return false;
+		
+		long key = s.getCanonicalHash();
+		int i = find(key);
+		return i < size && keys[i] == key;
+	}
+	
+	/**
+	 * Add the score of a move, or replace it if already present
+	 *
+	 * @param s
+	 * @param move Cell index of the move on the board of <code>s</code>
+	 * @param score
+	 */
+	public void put(GameState s, int move, int score) {
+		if(!accepts(s))
+			throw new RuntimeException("State does not fit in opening book");
+		
+		long key = s.getCanonicalHash();
+		int t = s.getBoard().getPreferredTransform();
+		byte m = (byte) geometry.getInverseTransform(t)[move];
+		
+		int i = find(key);
+		for(; i < size && keys[i] == key; i++) {
+			if(moves[i] == m) {
+				scores[i] = score;
+				return;
+			}
+		}
+		
+		if(size == keys.length) {
+			int capacity = Math.max(16, size * 2);
+			long k[] = new long[capacity];
+			byte mv[] = new byte[capacity];
+			int sc[] = new int[capacity];
+			System.arraycopy(keys, 0, k, 0, size);
+			System.arraycopy(moves, 0, mv, 0, size);
+			System.arraycopy(scores, 0, sc, 0, size);
+			keys = k;
+			moves = mv;
+			scores = sc;
+		}
+		
+		System.arraycopy(keys, i, keys, i + 1, size - i);
+		System.arraycopy(moves, i, moves, i + 1, size - i);
+		System.arraycopy(scores, i, scores, i + 1, size - i);
+		keys[i] = key;
+		moves[i] = m;
+		scores[i] = score;
+		size++;
+	}
+	
+	/**
+	 * @param s
+	 * @return The best book move (cell index on the board of <code>s</code>),
+	 *         or -1 if the state is not in the book
+	 */
+	public int getBestMove(GameState s) {
+		if(!accepts(s)) return -1;
+		
+		long key = s.getCanonicalHash();
+		int best = -1;
+		for(int i = find(key); i < size && keys[i] == key; i++)
+			if(best < 0 || scores[i] > scores[best])
+				best = i;
+		if(best < 0) return -1;
+		
+		int t = s.getBoard().getPreferredTransform();
+		return geometry.getTransform(t)[moves[best]];
+	}
+	
+	/**
+	 * @param s
+	 * @param move Cell index of the move on the board of <code>s</code>
+	 * @return The score of the move, or <code>Integer.MIN_VALUE</code> if not in the book
+	 */
+	public int getScore(GameState s, int move) {
+		if(!accepts(s)) return Integer.MIN_VALUE;
+		
+		long key = s.getCanonicalHash();
+		int t = s.getBoard().getPreferredTransform();
+		byte m = (byte) geometry.getInverseTransform(t)[move];
+		for(int i = find(key); i < size && keys[i] == key; i++)
+			if(moves[i] == m)
+				return scores[i];
+		return Integer.MIN_VALUE;
+	}
+	
+	public void write(OutputStream out) throws IOException {
+		DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+		data.writeInt(MAGIC);
+		data.writeByte(getNumRows());
+		data.writeByte(getNumColumns());
+		data.writeInt(size);
+		for(int i = 0; i < size; i++) {
+			data.writeLong(keys[i]);
+			data.writeByte(moves[i]);
+			data.writeInt(scores[i]);
+		}
+		data.flush();
+	}
+	
+	public static OpeningBook read(InputStream in) throws IOException {
+		DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+		if(data.readInt() != MAGIC)
+			throw new IOException("Not an opening book");
+		
+		int rows = data.readUnsignedByte(), cols = data.readUnsignedByte();
+		int n = data.readInt();
+		OpeningBook book = new OpeningBook(rows, cols);
+		book.keys = new long[n];
+		book.moves = new byte[n];
+		book.scores = new int[n];
+		for(int i = 0; i < n; i++) {
+			book.keys[i] = data.readLong();
+			book.moves[i] = data.readByte();
+			book.scores[i] = data.readInt();
+			if(i > 0 && book.keys[i] < book.keys[i - 1])
+				throw new IOException("Opening book entries are not sorted");
+		}
+		book.size = n;
+		return book;
+	}
+	
+	public void save(File file) throws IOException {
+		OutputStream out = new FileOutputStream(file);
+		try {
+			write(out);
+		} finally {
+			out.close();
+		}
+	}
+	
+	public static OpeningBook load(File file) throws IOException {
+		InputStream in = new FileInputStream(file);
+		try {
+			return read(in);
+		} finally {
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,164 @@
+package roderigo.ai;
+
+import java.io.File;
+import java.util.Random;
+
+import roderigo.ai.genetic.Genome;
+import roderigo.struct.Board;
+import roderigo.struct.BoardCellColor;
+import roderigo.struct.GameState;
+
+/**
+ * Expands an <code>OpeningBook</code> by self-play: games are played from the
+ * initial position up to a given number of moves; each position not yet in the
+ * book is added with the score of all its moves (the value of the position after
+ * the move, searched by an <code>AlphaBetaPlayer</code>); then a random move is
+ * played among the ones scoring close to the best, so that games explore
+ * different lines.
+ *
+ * Can be run from the command line:
+ * <pre>
+ * java roderigo.ai.OpeningBookBuilder &lt;book file&gt; [games] [moves] [depth]
+ * </pre>
+ * (an existing book file is expanded).
+ *
+ * @author Federico Ferri
+ *
+ */
+public class OpeningBookBuilder {
+	private final OpeningBook book;
+	private final AlphaBetaPlayer player;
+	
+	/**
+	 * Length of the book lines, in moves
+	 */
+	private int maxMoves = 12;
+	
+	/**
+	 * Moves scoring less than the best by at most this value may be played
+	 */
+	private int margin = 100;
+	
+	private Random random = new Random();
+	
+	/**
+	 * @param book The book to expand
+	 * @param player The player used to score the moves (with its
+	 *               depth, budget and genome)
+	 */
+	public OpeningBookBuilder(OpeningBook book, AlphaBetaPlayer player) {
+		this.book = book;
+		this.player = player;
+	}
+	
+	public OpeningBook getBook() {
+		return book;
+	}
+	
+	public int getMaxMoves() {
+		return maxMoves;
+	}
+	
+	public void setMaxMoves(int maxMoves) {
+		this.maxMoves = maxMoves;
+	}
+	
+	public int getMargin() {
+		return margin;
+	}
+	
+	public void setMargin(int margin) {
+		this.margin = margin;
+	}
+	
+	public void setRandom(Random random) {
+		this.random = random;
+	}
+	
+	/**
+	 * Play the given number of games, adding their positions to the book
+	 *
+	 * @param games
+	 * @throws AbortException
+	 */
+	public void expand(int games) throws AbortException {
+		for(int game = 0; game < games; game++) {
+			GameState s = new GameState(new Board(book.getNumRows(), book.getNumColumns()), BoardCellColor.BLACK, 0);
+			
+			for(int i = 0; i < maxMoves && s.getTurn() != null; i++) {
+				if(!book.contains(s))
+					addPosition(s);
+				
+				s.makeMove(chooseMove(s), null);
+			}
+		}
+	}
+	
+	/**
+	 * Score all the moves of a state and put them in the book
+	 *
+	 * @param s
+	 * @throws AbortException
+	 */
+	public void addPosition(GameState s) throws AbortException {
+		BoardCellColor turn = s.getTurn();
+		for(long moves = s.getBoard().getValidMovesMask(turn); moves != 0; moves &= moves - 1) {
+			int move = Long.numberOfTrailingZeros(moves);
+			
+			GameState child = new GameState(s);
+			child.makeMove(move, null);
+			
+			int score;
+			if(child.getTurn() == null)
+				score = new BoardEvaluation(child.getBoard(), turn).getValue(player.getGenome());
+			else if(child.getTurn() == turn)
+				score = player.getValue(child);
+			else
+				score = -player.getValue(child);
+			
+			book.put(s, move, score);
+		}
+	}
+	
+	/**
+	 * @return A random book move among the ones close to the best
+	 */
+	private int chooseMove(GameState s) {
+		int best = book.getScore(s, book.getBestMove(s));
+		
+		int chosen = -1, n = 0;
+		for(long moves = s.getBoard().getValidMovesMask(s.getTurn()); moves != 0; moves &= moves - 1) {
+			int move = Long.numberOfTrailingZeros(moves);
+			int score = book.getScore(s, move);
+			if(score != Integer.MIN_VALUE && score >= best - margin && random.nextInt(++n) == 0)
+				chosen = move;
+		}
+		return chosen;
+	}
+	
+	public static void main(String args[]) throws Exception {
+		if(args.length < 1) {
+			System.out.println("usage: OpeningBookBuilder <book file> [games] [moves] [depth]");
+			return;
+		}
+		
+		File file = new File(args[0]);
+		int games = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+		
+		OpeningBook book = file.exists() ? OpeningBook.load(file) : new OpeningBook(8, 8);
+		
+		AlphaBetaPlayer player = new AlphaBetaPlayer(Genome.DEFAULT);
+		player.setUsingDynamicDepth(false);
+		player.setMaxDepth(args.length > 3 ? Integer.parseInt(args[3]) : 8);
+		
+		OpeningBookBuilder builder = new OpeningBookBuilder(book, player);
+		if(args.length > 2) builder.setMaxMoves(Integer.parseInt(args[2]));
+		
+		for(int game = 0; game < games; game++) {
+			builder.expand(1);
+			System.out.println("game " + (game + 1) + ": " + book.size() + " book moves");
+		}
+		
+		book.save(file);
+	}
+}
@@ -0,0 +1,71 @@
+package roderigo.ai;
+
+import roderigo.struct.Board;
+import roderigo.struct.BoardCellColor;
+import roderigo.struct.GameState;
+
+/**
+ * Evaluation of the 8x8 board with <code>PatternTables</code>.
+ *
+ * The index of each pattern instance is updated by the moves (for each
+ * placed or flipped piece, a few additions), so the value is computed with
+ * table lookups only: one per instance.
+ *
+ * Ended games are not recognized (their value is not the final result).
+ *
+ * @author Federico Ferri
+ *
+ */
+public class PatternEvaluation implements SearchEvaluation {
+	private final PatternTables tables;
+	
+	private final int indexes[] = new int[PatternTables.getNumInstances()];
+	
+	private int pieces = 0;
+	
+	public PatternEvaluation(PatternTables tables) {
+		this.tables = tables;
+	}
+	
+	public PatternTables getTables() {
+		return tables;
+	}
+	
+	public void reset(Board board) {
+		if(!PatternTables.accepts(board.getGeometry()))
+			throw new RuntimeException("Pattern evaluation needs a 8x8 board");
+		
+		long black = board.getPiecesMask(BoardCellColor.BLACK), white = board.getPiecesMask(BoardCellColor.WHITE);
+		PatternTables.computeIndexes(black, white, indexes);
+		pieces = Long.bitCount(black | white);
+	}
+	
+	public void makeMove(GameState.Undo u) {
+		update(u, 1);
+		pieces++;
+	}
+	
+	public void unmakeMove(GameState.Undo u) {
+		update(u, -1);
+		pieces--;
+	}
+	
+	/**
+	 * The placed piece adds 1 (black) or 2 (white) to the contents of its cell,
+	 * and a flip adds 1 (black to white) or -1 (white to black)
+	 */
+	private void update(GameState.Undo u, int sign) {
+		boolean black = u.getColor() == BoardCellColor.BLACK;
+		
+		PatternTables.update(indexes, u.getIndex(), sign * (black ? 1 : 2));
+		
+		int flip = sign * (black ? -1 : 1);
+		for(long f = u.getFlipped(); f != 0; f &= f - 1)
+			PatternTables.update(indexes, Long.numberOfTrailingZeros(f), flip);
+	}
+	
+	public int getValue(BoardCellColor color) {
+		int v = tables.evaluate(PatternTables.getPhase(pieces), indexes);
+		return (color == BoardCellColor.BLACK) ? v : -v;
+	}
+}
@@ -0,0 +1,217 @@
+package roderigo.ai;
+
+import java.io.File;
+import java.util.Random;
+
+import roderigo.ai.genetic.Genome;
+import roderigo.struct.Board;
+import roderigo.struct.BoardCellColor;
+import roderigo.struct.GameState;
+
+/**
+ * Learns <code>PatternTables</code> from self-play: games are played by an
+ * <code>AlphaBetaPlayer</code> (after some random moves, so that games differ)
+ * and each of their positions is labeled with the final difference of black and
+ * white pieces of the game; then the weights are fitted to the labels by
+ * stochastic gradient descent of the squared error.
+ *
+ * Can be run from the command line:
+ * <pre>
+ * java roderigo.ai.PatternFitter &lt;tables file&gt; [games] [depth] [epochs]
+ * </pre>
+ * (if the tables file exists, the games are played with its evaluation, and
+ * its weights are refined).
+ *
+ * @author Federico Ferri
+ *
+ */
+public class PatternFitter {
+	private final PatternTables tables;
+	private final AlphaBetaPlayer player;
+	
+	/**
+	 * Number of random moves at the start of each game
+	 */
+	private int randomMoves = 10;
+	
+	private Random random = new Random();
+	
+	/**
+	 * Training positions: phase, features (<code>PatternTables.getNumInstances()</code>
+	 * per position) and final difference of black and white pieces
+	 */
+	private byte phases[] = new byte[0];
+	private int features[] = new int[0];
+	private byte results[] = new byte[0];
+	private int size = 0;
+	
+	/**
+	 * Weights being fitted (created first time they are needed)
+	 */
+	private float weights[][] = null;
+	
+	/**
+	 * @param tables The tables to fit
+	 * @param player The player of the self-play games
+	 */
+	public PatternFitter(PatternTables tables, AlphaBetaPlayer player) {
+		this.tables = tables;
+		this.player = player;
+	}
+	
+	public PatternTables getTables() {
+		return tables;
+	}
+	
+	/**
+	 * @return The number of training positions
+	 */
+	public int size() {
+		return size;
+	}
+	
+	public int getRandomMoves() {
+		return randomMoves;
+	}
+	
+	public void setRandomMoves(int randomMoves) {
+		this.randomMoves = randomMoves;
+	}
+	
+	public void setRandom(Random random) {
+		this.random = random;
+	}
+	
+	/**
+	 * Play a self-play game, adding its positions to the training set
+	 *
+	 * @throws AbortException
+	 */
+	public void playGame() throws AbortException {
+		GameState s = new GameState(new Board(8, 8), BoardCellColor.BLACK, 0);
+		int first = size;
+		
+		for(int ply = 0; s.getTurn() != null; ply++) {
+			add(s);
+			
+			long moves = s.getBoard().getValidMovesMask(s.getTurn());
+			int move;
+			if(ply < randomMoves) {
+				for(int k = random.nextInt(Long.bitCount(moves)); k > 0; k--)
+					moves &= moves - 1;
+				move = Long.numberOfTrailingZeros(moves);
+			} else {
+				move = player.getBestMove(s).index;
+			}
+			s.makeMove(move, null);
+		}
+		
+		Board b = s.getBoard();
+		int result = Long.bitCount(b.getPiecesMask(BoardCellColor.BLACK)) - Long.bitCount(b.getPiecesMask(BoardCellColor.WHITE));
+		for(int i = first; i < size; i++)
+			results[i] = (byte) result;
+	}
+	
+	private void add(GameState s) {
+		int n = PatternTables.getNumInstances();
+		
+		if(size == phases.length) {
+			int capacity = Math.max(1024, size * 2);
+			byte p[] = new byte[capacity];
+			int f[] = new int[capacity * n];
+			byte r[] = new byte[capacity];
+			System.arraycopy(phases, 0, p, 0, size);
+			System.arraycopy(features, 0, f, 0, size * n);
+			System.arraycopy(results, 0, r, 0, size);
+			phases = p;
+			features = f;
+			results = r;
+		}
+		
+		long black = s.getBoard().getPiecesMask(BoardCellColor.BLACK), white = s.getBoard().getPiecesMask(BoardCellColor.WHITE);
+		int f[] = new int[n];
+		PatternTables.computeFeatures(black, white, f);
+		System.arraycopy(f, 0, features, size * n, n);
+		phases[size] = (byte) PatternTables.getPhase(Long.bitCount(black | white));
+		size++;
+	}
+	
+	/**
+	 * Do a pass of stochastic gradient descent over the training positions
+	 * (in random order), then store the rounded weights in the tables
+	 *
+	 * @param rate The learning rate
+	 * @return The root mean square error of the pass, in pieces
+	 */
+	public double fit(double rate) {
+		int n = PatternTables.getNumInstances();
+		
+		if(weights == null) {
+			weights = new float[PatternTables.PHASES][PatternTables.getTableSize()];
+			for(int phase = 0; phase < weights.length; phase++)
+				for(int i = 0; i < weights[phase].length; i++)
+					weights[phase][i] = tables.get(phase, i);
+		}
+		
+		int order[] = new int[size];
+		for(int i = 0; i < size; i++) {
+			int j = random.nextInt(i + 1);
+			order[i] = order[j];
+			order[j] = i;
+		}
+		
+		double error = 0;
+		for(int i : order) {
+			float w[] = weights[phases[i]];
+			int base = i * n;
+			
+			float prediction = 0;
+			for(int k = 0; k < n; k++)
+				prediction += w[features[base + k]];
+			
+			float e = results[i] * PatternTables.SCALE - prediction;
+			error += (double) e * e;
+			
+			float step = (float) (rate * e);
+			for(int k = 0; k < n; k++)
+				w[features[base + k]] += step;
+		}
+		
+		for(int phase = 0; phase < weights.length; phase++)
+			for(int i = 0; i < weights[phase].length; i++)
+				tables.set(phase, i, Math.round(weights[phase][i]));
+		
+		return size == 0 ? 0 : Math.sqrt(error / size) / PatternTables.SCALE;
+	}
+	
+	public static void main(String args[]) throws Exception {
+		if(args.length < 1) {
+			System.out.println("usage: PatternFitter <tables file> [games] [depth] [epochs]");
+			return;
+		}
+		
+		File file = new File(args[0]);
+		int games = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+		int epochs = args.length > 3 ? Integer.parseInt(args[3]) : 20;
+		
+		PatternTables tables = file.exists() ? PatternTables.load(file) : new PatternTables();
+		
+		AlphaBetaPlayer player = new AlphaBetaPlayer(Genome.DEFAULT);
+		player.setUsingDynamicDepth(false);
+		player.setMaxDepth(args.length > 2 ? Integer.parseInt(args[2]) : 4);
+		if(file.exists()) player.setPatternTables(tables);
+		
+		PatternFitter fitter = new PatternFitter(tables, player);
+		for(int game = 0; game < games; game++) {
+			fitter.playGame();
+			if((game + 1) % 100 == 0)
+				System.out.println("game " + (game + 1) + ": " + fitter.size() + " positions");
+		}
+		
+		double rate = 0.002;
+		for(int epoch = 0; epoch < epochs; epoch++, rate *= 0.9)
+			System.out.println("epoch " + (epoch + 1) + ": error " + String.format("%.2f", fitter.fit(rate)));
+		
+		tables.save(file);
+	}
+}
@@ -0,0 +1,300 @@
+package roderigo.ai;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import roderigo.struct.BoardGeometry;
+
+/**
+ * Weight tables of the pattern evaluation of the 8x8 board (see
+ * <code>PatternEvaluation</code>, and <code>PatternFitter</code> for
+ * learning them).
+ *
+ * A pattern is a list of cells: edge + 2 X cells, corner 3x3, the
+ * 2nd, 3rd and 4th rows, and the diagonals of length 4 to 8. Each pattern
+ * occurs on the board in all its symmetric positions (instances); the contents
+ * of an instance (0 empty, 1 black, 2 white for each cell) give an index in the
+ * table of the pattern, shared by all its instances. There is a set of tables
+ * for each game phase (given by the number of pieces on the board).
+ *
+ * The value of a board is the sum of the weights of its instances, and
+ * estimates the final difference of black and white pieces, in units of
+ * <code>1/SCALE</code> pieces.
+ *
+ * On disk, after a header (magic, phases, table size) the weights are stored
+ * as ints, big endian, phase by phase.
+ *
+ * @author Federico Ferri
+ *
+ */
+public class PatternTables {
+	private static final int MAGIC = 0x52505431; // "RPT1"
+	
+	public static final int PHASES = 10;
+	
+	/**
+	 * Value of a piece of difference
+	 */
+	public static final int SCALE = 100;
+	
+	/**
+	 * Cells of each instance (bit indexes), and offset of the table of
+	 * its pattern in the weights of a phase
+	 */
+	private static final int instanceCells[][];
+	private static final int instanceOffset[];
+	
+	/**
+	 * Total size of the tables of a phase
+	 */
+	private static final int TABLE_SIZE;
+	
+	/**
+	 * For each cell, the instances which include it, and the weight
+	 * (power of 3) of the cell in the index of each instance
+	 */
+	private static final int cellInstances[][];
+	private static final int cellPowers[][];
+	
+	private static final BoardGeometry geometry = BoardGeometry.get(8, 8);
+	
+	static {
+		List<int[]> patterns = new ArrayList<int[]>();
+		
+		int edge[] = new int[10];
+		System.arraycopy(line(0, 0, 0, 1, 8), 0, edge, 0, 8);
+		edge[8] = geometry.index(1, 1);
+		edge[9] = geometry.index(1, 6);
+		patterns.add(edge);
+		
+		int corner[] = new int[9];
+		for(int i = 0; i < 9; i++)
+			corner[i] = geometry.index(i / 3, i % 3);
+		patterns.add(corner);
+		
+		for(int row = 1; row <= 3; row++)
+			patterns.add(line(row, 0, 0, 1, 8));
+		for(int length = 8; length >= 4; length--)
+			patterns.add(line(0, 8 - length, 1, 1, length));
+		
+		List<int[]> cells = new ArrayList<int[]>();
+		List<Integer> offsets = new ArrayList<Integer>();
+		int offset = 0;
+		for(int pattern[] : patterns) {
+			// the distinct symmetric positions of the pattern:
+			List<Long> found = new ArrayList<Long>();
+			for(int t = 0; t < 8; t++) {
+				int instance[] = new int[pattern.length];
+				long mask = 0L;
+				for(int i = 0; i < pattern.length; i++) {
+					instance[i] = geometry.getTransform(t)[pattern[i]];
+					mask |= 1L << instance[i];
+				}
+				
+				if(found.contains(mask)) continue;
+				
+				found.add(mask);
+				cells.add(instance);
+				offsets.add(offset);
+			}
+			offset += pow3(pattern.length);
+		}
+		
+		TABLE_SIZE = offset;
+		instanceCells = cells.toArray(new int[cells.size()][]);
+		instanceOffset = new int[offsets.size()];
+		for(int i = 0; i < instanceOffset.length; i++)
+			instanceOffset[i] = offsets.get(i);
+		
+		cellInstances = new int[64][];
+		cellPowers = new int[64][];
+		for(int cell = 0; cell < 64; cell++) {
+			int n = 0, inst[] = new int[instanceCells.length], pow[] = new int[instanceCells.length];
+			for(int i = 0; i < instanceCells.length; i++) {
+				for(int k = 0; k < instanceCells[i].length; k++) {
+					if(instanceCells[i][k] == cell) {
+						inst[n] = i;
+						pow[n++] = pow3(k);
+					}
+				}
+			}
+			cellInstances[cell] = Arrays.copyOf(inst, n);
+			cellPowers[cell] = Arrays.copyOf(pow, n);
+		}
+	}
+	
+	private static int[] line(int row, int col, int dr, int dc, int length) {
+		int cells[] = new int[length];
+		for(int i = 0; i < length; i++)
+			cells[i] = geometry.index(row + i * dr, col + i * dc);
+		return cells;
+	}
+	
+	private static int pow3(int n) {
+		int p = 1;
+		while(n-- > 0) p *= 3;
+		return p;
+	}
+	
+	private final int weights[][] = new int[PHASES][TABLE_SIZE];
+	
+	/**
+	 * @return The number of pattern instances on the board
+	 */
+	public static int getNumInstances() {
+		return instanceCells.length;
+	}
+	
+	/**
+	 * @return The number of weights of each phase
+	 */
+	public static int getTableSize() {
+		return TABLE_SIZE;
+	}
+	
+	/**
+	 * @return <code>true</code> if boards with the given geometry can be evaluated
+	 */
+	public static boolean accepts(BoardGeometry g) {
+		return g == geometry;
+	}
+	
+	/**
+	 * @param pieces The number of pieces on the board
+	 * @return The game phase
+	 */
+	public static int getPhase(int pieces) {
+		return Math.max(0, Math.min(PHASES - 1, (pieces - 4) * PHASES / 61));
+	}
+	
+	/**
+	 * Compute the index of each instance
+	 *
+	 * @param black
+	 * @param white
+	 * @param indexes Filled with the indexes (one per instance)
+	 */
+	public static void computeIndexes(long black, long white, int indexes[]) {
+		for(int i = 0; i < instanceCells.length; i++) {
+			int index = 0;
+			for(int k = instanceCells[i].length - 1; k >= 0; k--) {
+				long bit = 1L << instanceCells[i][k];
+				index = index * 3 + ((black & bit) != 0 ? 1 : (white & bit) != 0 ? 2 : 0);
+			}
+			indexes[i] = index;
+		}
+	}
+	
+	/**
+	 * Compute the features of a board, i.e. the positions in the weights of
+	 * a phase used to evaluate it (one per instance)
+	 *
+	 * @param black
+	 * @param white
+	 * @param features Filled with the features
+	 */
+	public static void computeFeatures(long black, long white, int features[]) {
+		computeIndexes(black, white, features);
+		for(int i = 0; i < features.length; i++)
+			features[i] += instanceOffset[i];
+	}
+	
+	/**
+	 * Update the indexes after the cell has changed contents
+	 *
+	 * @param indexes
+	 * @param cell
+	 * @param delta The change of the contents of the cell (e.g. +2 for a white
+	 *              piece placed, -1 for a white piece flipped to black)
+	 */
+	static void update(int indexes[], int cell, int delta) {
+		int inst[] = cellInstances[cell], pow[] = cellPowers[cell];
+		for(int j = 0; j < inst.length; j++)
+			indexes[inst[j]] += delta * pow[j];
+	}
+	
+	/**
+	 * @param phase
+	 * @param indexes The indexes of the instances
+	 * @return The value of the board, for black
+	 */
+	public int evaluate(int phase, int indexes[]) {
+		int w[] = weights[phase], v = 0;
+		for(int i = 0; i < indexes.length; i++)
+			v += w[instanceOffset[i] + indexes[i]];
+		return v;
+	}
+	
+	/**
+	 * @param black
+	 * @param white
+	 * @return The value of the board, for black
+	 */
+	public int evaluate(long black, long white) {
+		int indexes[] = new int[instanceCells.length];
+		computeIndexes(black, white, indexes);
+		return evaluate(getPhase(Long.bitCount(black | white)), indexes);
+	}
+	
+	public int get(int phase, int feature) {
+		return weights[phase][feature];
+	}
+	
+	public void set(int phase, int feature, int weight) {
+		weights[phase][feature] = weight;
+	}
+	
+	public void write(OutputStream out) throws IOException {
+		DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+		data.writeInt(MAGIC);
+		data.writeInt(PHASES);
+		data.writeInt(TABLE_SIZE);
+		for(int phase = 0; phase < PHASES; phase++)
+			for(int i = 0; i < TABLE_SIZE; i++)
+				data.writeInt(weights[phase][i]);
+		data.flush();
+	}
+	
+	public static PatternTables read(InputStream in) throws IOException {
+		DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+		if(data.readInt() != MAGIC)
+			throw new IOException("Not a pattern tables file");
+		if(data.readInt() != PHASES || data.readInt() != TABLE_SIZE)
+			throw new IOException("Pattern tables of different patterns");
+		
+		PatternTables tables = new PatternTables();
+		for(int phase = 0; phase < PHASES; phase++)
+			for(int i = 0; i < TABLE_SIZE; i++)
+				tables.weights[phase][i] = data.readInt();
+		return tables;
+	}
+	
+	public void save(File file) throws IOException {
+		OutputStream out = new FileOutputStream(file);
+		try {
+			write(out);
+		} finally {
+			out.close();
+		}
+	}
+	
+	public static PatternTables load(File file) throws IOException {
+		InputStream in = new FileInputStream(file);
+		try {
+			return read(in);
+		} finally {
+			in.close();
+		}
+	}
+}
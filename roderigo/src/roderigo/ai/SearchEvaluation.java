@@ -0,0 +1,42 @@
+package roderigo.ai;
+
+import roderigo.struct.Board;
+import roderigo.struct.BoardCellColor;
+import roderigo.struct.GameState;
+
+/**
+ * Evaluation of the leaves of a search, which follows the moves made and
+ * unmade on the searched board (so that it can be updated incrementally)
+ *
+ * @author Federico Ferri
+ *
+ */
+public interface SearchEvaluation {
+	/**
+	 * Start following a board: its moves must be then notified with
+	 * <code>makeMove</code> and <code>unmakeMove</code>
+	 *
+	 * @param board
+	 */
+	public void reset(Board board);
+	
+	/**
+	 * Update after a move made on the board
+	 *
+	 * @param u The undo record of the move
+	 */
+	public void makeMove(GameState.Undo u);
+	
+	/**
+	 * Update after a move unmade on the board
+	 *
+	 * @param u The undo record of the move
+	 */
+	public void unmakeMove(GameState.Undo u);
+	
+	/**
+	 * @param color The player for whom the board is evaluated
+	 * @return The value of the board (the higher, the better for <code>color</code>)
+	 */
+	public int getValue(BoardCellColor color);
+}
@@ -0,0 +1,183 @@
+package roderigo.ai;
+
+/**
+ * Statistics of a search of <code>AlphaBetaPlayer</code> (see
+ * <code>AlphaBetaPlayer.getStatistics()</code>): a snapshot, which is
+ * not updated by the search after it has been taken.
+ *
+ * Time spent in move generation (including move ordering) and in evaluation
+ * is measured on a sample of the calls (one every <code>2^TIMING_SAMPLE_BITS</code>),
+ * and scaled up, because reading the clock at each call would slow the search.
+ *
+ * With more than one thread, the counters include the helper threads
+ * only at the end of the search.
+ *
+ * @author Federico Ferri
+ *
+ */
+public class SearchStatistics {
+	static final int TIMING_SAMPLE_BITS = 6;
+	static final int TIMING_SAMPLE_MASK = (1 << TIMING_SAMPLE_BITS) - 1;
+	
+	/**
+	 * Cutoffs are counted by index of the move causing them in the
+	 * ordered moves of the node; the last counter holds the later moves
+	 */
+	public static final int CUTOFF_MOVE_INDEXES = 8;
+	
+	long nodes = 0;
+	long leaves = 0;
+	long cutoffs[] = new long[CUTOFF_MOVE_INDEXES];
+	long ttProbes = 0;
+	long ttHits = 0;
+	long evaluationCacheHits = 0;
+	long moveGenerations = 0;
+	long moveGenerationNanos = 0;
+	long evaluationNanos = 0;
+	long nanos = 0;
+	int depth = 0;
+	
+	public SearchStatistics() {
+	}
+	
+	public SearchStatistics(SearchStatistics s) {
+		nodes = s.nodes;
+		leaves = s.leaves;
+		cutoffs = s.cutoffs.clone();
+		ttProbes = s.ttProbes;
+		ttHits = s.ttHits;
+		evaluationCacheHits = s.evaluationCacheHits;
+		moveGenerations = s.moveGenerations;
+		moveGenerationNanos = s.moveGenerationNanos;
+		evaluationNanos = s.evaluationNanos;
+		nanos = s.nanos;
+		depth = s.depth;
+	}
+	
+	void clear() {
+		nodes = leaves = ttProbes = ttHits = evaluationCacheHits = 0;
+		moveGenerations = moveGenerationNanos = evaluationNanos = nanos = 0;
+		depth = 0;
+		for(int i = 0; i < cutoffs.length; i++)
+			cutoffs[i] = 0;
+	}
+	
+	/**
+	 * Add the counters of another thread of the same search
+	 */
+	void add(SearchStatistics s) {
+		leaves += s.leaves;
+		ttProbes += s.ttProbes;
+		ttHits += s.ttHits;
+		evaluationCacheHits += s.evaluationCacheHits;
+		moveGenerations += s.moveGenerations;
+		moveGenerationNanos += s.moveGenerationNanos;
+		evaluationNanos += s.evaluationNanos;
+		for(int i = 0; i < cutoffs.length; i++)
+			cutoffs[i] += s.cutoffs[i];
+	}
+	
+	/**
+	 * @return The number of visited nodes (including the endgame solver)
+	 */
+	public long getNodes() {
+		return nodes;
+	}
+	
+	/**
+	 * @return The number of evaluated nodes
+	 */
+	public long getLeaves() {
+		return leaves;
+	}
+	
+	/**
+	 * @param moveIndex
+	 * @return The number of beta cutoffs caused by the move at the given
+	 *         index (from 0) in the ordered moves of the node
+	 */
+	public long getCutoffs(int moveIndex) {
+		return cutoffs[Math.min(moveIndex, CUTOFF_MOVE_INDEXES - 1)];
+	}
+	
+	/**
+	 * @return The number of beta cutoffs
+	 */
+	public long getCutoffs() {
+		long n = 0;
+		for(long c : cutoffs) n += c;
+		return n;
+	}
+	
+	/**
+	 * @return The fraction of cutoffs caused by the first move (a measure of move ordering)
+	 */
+	public double getFirstMoveCutoffRate() {
+		long n = getCutoffs();
+		return n == 0 ? 0 : (double) cutoffs[0] / n;
+	}
+	
+	/**
+	 * @return The fraction of transposition table probes which found an entry
+	 */
+	public double getTranspositionHitRate() {
+		return ttProbes == 0 ? 0 : (double) ttHits / ttProbes;
+	}
+	
+	/**
+	 * @return The fraction of evaluated nodes whose value was found in the evaluation cache
+	 */
+	public double getEvaluationCacheHitRate() {
+		return leaves == 0 ? 0 : (double) evaluationCacheHits / leaves;
+	}
+	
+	/**
+	 * @return The depth of the last completed iteration (the number of empty
+	 *         cells, if the game has been solved)
+	 */
+	public int getDepth() {
+		return depth;
+	}
+	
+	/**
+	 * @return The effective branching factor, i.e. the branching factor of a
+	 *         uniform tree of the reached depth with the same number of nodes
+	 */
+	public double getEffectiveBranchingFactor() {
+		return (depth == 0 || nodes == 0) ? 0 : Math.pow(nodes, 1.0 / depth);
+	}
+	
+	/**
+	 * @return The (wall clock) time of the search, in nanoseconds
+	 */
+	public long getNanos() {
+		return nanos;
+	}
+	
+	public long getNodesPerSecond() {
+		return nanos == 0 ? 0 : (long) (nodes * 1e9 / nanos);
+	}
+	
+	/**
+	 * @return The estimated time spent generating and ordering moves, in nanoseconds
+	 */
+	public long getMoveGenerationNanos() {
+		return moveGenerationNanos;
+	}
+	
+	/**
+	 * @return The estimated time spent evaluating leaves, in nanoseconds
+	 */
+	public long getEvaluationNanos() {
+		return evaluationNanos;
+	}
+	
+	public String toString() {
+		return String.format("depth %d, %d nodes (%d/s), %d leaves, EBF %.2f, TT hits %.1f%%, " +
+				"evaluation cache hits %.1f%%, first move cutoffs %.1f%%, move generation %d ms, " +
+				"evaluation %d ms, total %d ms",
+				depth, nodes, getNodesPerSecond(), leaves, getEffectiveBranchingFactor(),
+				100 * getTranspositionHitRate(), 100 * getEvaluationCacheHitRate(), 100 * getFirstMoveCutoffRate(),
+				moveGenerationNanos / 1000000, evaluationNanos / 1000000, nanos / 1000000);
+	}
+}
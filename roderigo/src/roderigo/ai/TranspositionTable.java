@@ -0,0 +1,162 @@
+package roderigo.ai;
+
+/**
+ * Fixed size hash table of search results, indexed by position hash
+ * (see <code>GameState.getHash()</code>), used by <code>AlphaBetaPlayer</code>
+ * to avoid searching again positions reached by different move orders.
+ *
+ * The table has a power of two number of entries, grouped in buckets of two.
+ * When storing into a full bucket, the entry written by an older search
+ * (see <code>newSearch()</code>) is replaced first, then the shallower one.
+ *
+ * Each entry is packed in a <code>long</code> (see the <code>get*</code>
+ * methods), so probing does not allocate; the stored key is xored with the
+ * data, so that an entry is never matched with data of another position.
+ *
+ * The table can be shared by the threads of a parallel search without
+ * locking: an entry written by two threads at the same time is mixed up,
+ * but then its key does not match and it is just ignored.
+ *
+ * @author Federico Ferri
+ *
+ */
+public class TranspositionTable {
+	/**
+	 * Bound types: the stored score is exact, a lower bound (the search
+	 * failed high) or an upper bound (the search failed low)
+	 */
+	public static final int EXACT = 0;
+	public static final int LOWER = 1;
+	public static final int UPPER = 2;
+	
+	public static final int DEFAULT_SIZE_BITS = 18;
+	
+	// data layout:
+	private static final int DEPTH_SHIFT = 32;
+	private static final int BOUND_SHIFT = 40;
+	private static final int MOVE_SHIFT = 42;
+	private static final int GENERATION_SHIFT = 49;
+	private static final long VALID = 1L << 63;
+	
+	private final long keys[];
+	private final long data[];
+	private final int mask;
+	
+	private int generation = 0;
+	
+	/**
+	 * @param sizeBits The table will have 2^sizeBits entries
+	 */
+	public TranspositionTable(int sizeBits) {
+		if(sizeBits < 1 || sizeBits > 28)
+			throw new RuntimeException("Invalid transposition table size: 2^" + sizeBits);
+		
+		keys = new long[1 << sizeBits];
+		data = new long[1 << sizeBits];
+		mask = (1 << sizeBits) - 1;
+	}
+	
+	/**
+	 * @return The number of entries
+	 */
+	public int size() {
+		return data.length;
+	}
+	
+	public void clear() {
+		for(int i = 0; i < data.length; i++) {
+			keys[i] = 0L;
+			data[i] = 0L;
+		}
+		generation = 0;
+	}
+	
+	/**
+	 * Start a new search: entries of previous searches are kept
+	 * (and used) but they are the first to be replaced
+	 */
+	public void newSearch() {
+		generation = (generation + 1) & 0xFF;
+	}
+	
+	/**
+	 * @param hash
+	 * @return The entry of the given position, or 0 if not found
+	 */
+	public long probe(long hash) {
+		int i = (int) hash & mask & ~1;
+		
+		long d = data[i];
+		if((keys[i] ^ d) == hash && d != 0) return d;
+		d = data[i + 1];
+		if((keys[i + 1] ^ d) == hash && d != 0) return d;
+		
+		return 0L;
+	}
+	
+	/**
+	 * Store the result of a search
+	 *
+	 * @param hash The position hash
+	 * @param depth The depth of the search (in plies from the position)
+	 * @param bound The bound type (EXACT, LOWER, UPPER)
+	 * @param score
+	 * @param move The best move (cell index), or -1 if unknown
+	 */
+	public void store(long hash, int depth, int bound, int score, int move) {
+		int i = (int) hash & mask & ~1;
+		int slot;
+		
+		if((keys[i] ^ data[i]) == hash && data[i] != 0) {
+			slot = i;
+		} else if((keys[i + 1] ^ data[i + 1]) == hash && data[i + 1] != 0) {
+			slot = i + 1;
+		} else {
+			// replace an empty entry or the entry of an older search, or else the shallower:
+			boolean old0 = data[i] == 0 || getGeneration(data[i]) != generation;
+			boolean old1 = data[i + 1] == 0 || getGeneration(data[i + 1]) != generation;
+			if(old0 != old1)
+				slot = old0 ? i : i + 1;
+			else
+				slot = (getDepth(data[i]) <= getDepth(data[i + 1])) ? i : i + 1;
+		}
+		
+		// keep the best move if the new result has none:
+		if(move < 0 && (keys[slot] ^ data[slot]) == hash && data[slot] != 0)
+			move = getMove(data[slot]);
+		
+		long d = VALID
+			| (score & 0xFFFFFFFFL)
+			| ((long) Math.min(depth, 0xFF) << DEPTH_SHIFT)
+			| ((long) bound << BOUND_SHIFT)
+			| ((long) (move + 1) << MOVE_SHIFT)
+			| ((long) generation << GENERATION_SHIFT);
+		
+		keys[slot] = hash ^ d;
+		data[slot] = d;
+	}
+	
+	public static int getScore(long entry) {
+		return (int) entry;
+	}
+	
+	public static int getDepth(long entry) {
+		return (int) (entry >>> DEPTH_SHIFT) & 0xFF;
+	}
+	
+	public static int getBound(long entry) {
+		return (int) (entry >>> BOUND_SHIFT) & 0x3;
+	}
+	
+	/**
+	 * @param entry
+	 * @return The best move (cell index), or -1 if unknown
+	 */
+	public static int getMove(long entry) {
+		return ((int) (entry >>> MOVE_SHIFT) & 0x7F) - 1;
+	}
+	
+	private static int getGeneration(long entry) {
+		return (int) (entry >>> GENERATION_SHIFT) & 0xFF;
+	}
+}
@@ -67,6 +67,14 @@ public class Genome {
 		weights[bit] = value;
 	}
 	
+	/**
+	 * @return A hash of the weights, which identifies the evaluation
+	 *         function (e.g. in an <code>EvaluationCache</code>)
+	 */
+	public int getId() {
+		return Arrays.hashCode(weights);
+	}
+	
 	public String toString() {
 		return "<" + Arrays.toString(weights) + ">";
 	}
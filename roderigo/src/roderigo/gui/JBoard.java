@@ -15,7 +15,10 @@ import javax.swing.JPanel;
 import javax.swing.SwingUtilities;
 
 import roderigo.Controller;
+import roderigo.ai.Analyzer;
+import roderigo.ai.BoardEvaluation;
 import roderigo.struct.BoardCell;
+import roderigo.struct.BoardCellSet;
 
 /**
  * GUI representation of <code>Board</code>
@@ -35,6 +38,12 @@ public class JBoard extends JPanel implements MouseListener, MouseMotionListener
 	private BoardCell lastMove = null;
 	private BoardCell bestMove = null;
 	
+	/**
+	 * Analysis of the present position (see <code>Controller.setShowingAnalysis</code>),
+	 * shown as the score of each move
+	 */
+	private List<Analyzer.Line> analysis = null;
+	
 	// metrics used by paint and mouse operations:
 	public class Metrics {
 		public int width = 0, height = 0, side = 0, cell = 0;
@@ -93,6 +102,14 @@ public class JBoard extends JPanel implements MouseListener, MouseMotionListener
 	public void setLastMove(BoardCell cell) {
 		bestMove = null;
 		lastMove = cell;
+		analysis = null;
+	}
+	
+	/**
+	 * @param lines The analysis of the present position (null for none)
+	 */
+	public void setAnalysis(List<Analyzer.Line> lines) {
+		analysis = lines;
 	}
 	
 	public synchronized void asyncRepaint() {
@@ -117,11 +134,33 @@ public class JBoard extends JPanel implements MouseListener, MouseMotionListener
 		g.fillRect(0, 0, m.width, m.height);
 		
 		
+		BoardCellSet stablePieces = controller.getBoard().getStablePieces();
+		
 		for(BoardCell c : controller.getBoard().getAllCells())
-			paintCell(g, m, c);
+			paintCell(g, m, c, stablePieces.contains(c));
+		
+		List<Analyzer.Line> lines = analysis;
+		if(lines != null) {
+			for(int i = 0; i < lines.size(); i++)
+				paintAnalysis(g, m, controller.getBoard().get(lines.get(i).getMove()), lines.get(i), i == 0);
+		}
+	}
+	
+	/**
+	 * Paint the score of a move: the final difference of pieces if
+	 * the game has been solved, otherwise the heuristic value
+	 */
+	private void paintAnalysis(Graphics g, Metrics m, BoardCell c, Analyzer.Line line, boolean best) {
+		int score = line.getScore();
+		String s = line.isExact() ? String.format("%+d", score / BoardEvaluation.GAME_END_WEIGHT) : String.valueOf(score);
+		
+		int fw = g.getFontMetrics().stringWidth(s);
+		int fh = g.getFontMetrics().getAscent();
+		g.setColor(best ? colors.bestMove : colors.analysis);
+		g.drawString(s, 1 + c.col * m.cell + (m.cell - fw) / 2, 1 + c.row * m.cell + (m.cell + fh) / 2);
 	}
 	
-	private void paintCell(Graphics g, Metrics m, BoardCell c) {
+	private void paintCell(Graphics g, Metrics m, BoardCell c, boolean stable) {
 		int x = 1 + c.col * m.cell,
 		    y = 1 + c.row * m.cell;
 		
@@ -150,7 +189,7 @@ public class JBoard extends JPanel implements MouseListener, MouseMotionListener
 			g.fillRect(x + m.cell / 2 - 2, y + m.cell / 2 - 2, 4, 4);
 		}
 		
-		if(c.isStable()) {
+		if(stable) {
 			g.setColor(colors.stablePiece);
 			g.fillRect(x + m.cell * 9 / 10, y + m.cell * 9 / 10, 5, 5);
 		}
@@ -17,5 +17,7 @@ public class JBoardColorScheme {
 	
 	public final Color bestMove = Color.orange;
 	
+	public final Color analysis = Color.white;
+	
 	public final Color stablePiece = Color.yellow;
 }
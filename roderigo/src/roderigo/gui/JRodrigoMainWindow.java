@@ -20,6 +20,7 @@ import javax.swing.border.BevelBorder;
 import roderigo.Controller;
 import roderigo.ai.AIPlayer;
 import roderigo.ai.AlphaBetaPlayer;
+import roderigo.ai.MonteCarloPlayer;
 import roderigo.ai.genetic.Genome;
 import roderigo.struct.BoardCellColor;
 
@@ -41,6 +42,8 @@ public class JRodrigoMainWindow extends JFrame {
 	public final JMenu menuTopOptions;
 	public final JCheckBoxMenuItem menuItemUseDynamicDepth;
 	public final JCheckBoxMenuItem menuItemDontMakeMoves;
+	public final JCheckBoxMenuItem menuItemShowAnalysis;
+	public final JCheckBoxMenuItem menuItemPondering;
 	public final JCheckBoxMenuItem menuItemAIPlaysBlack;
 	public final JCheckBoxMenuItem menuItemAIPlaysWhite;
 	
@@ -81,6 +84,14 @@ public class JRodrigoMainWindow extends JFrame {
 		menuItemDontMakeMoves.setAction(new ActionToggleOption("Don't make moves", menuItemDontMakeMoves, "setDontMakeMoves"));
 		menuItemDontMakeMoves.setSelected(controller.isDontMakeMoves());
 		
+		menuTopOptions.add(menuItemShowAnalysis = new JCheckBoxMenuItem());
+		menuItemShowAnalysis.setAction(new ActionToggleOption("Show analysis", menuItemShowAnalysis, "setShowingAnalysis"));
+		menuItemShowAnalysis.setSelected(controller.isShowingAnalysis());
+		
+		menuTopOptions.add(menuItemPondering = new JCheckBoxMenuItem());
+		menuItemPondering.setAction(new ActionToggleOption("Think on opponent's time", menuItemPondering, "setPondering"));
+		menuItemPondering.setSelected(controller.isPondering());
+		
 		menuTopOptions.add(menuItemAIPlaysBlack = new JCheckBoxMenuItem());
 		menuItemAIPlaysBlack.setAction(new ActionToggleOption("AI plays black", menuItemAIPlaysBlack, "setAiPlaysBlack"));
 		menuItemAIPlaysBlack.setSelected(controller.isAiPlaysBlack());
@@ -115,16 +126,25 @@ public class JRodrigoMainWindow extends JFrame {
 		final Genome genomeObj[] = {Genome.DEFAULT, Genome.EVO1, Genome.EVO2, Genome.EVO6, Genome.EVO7, Genome.EVO8a, Genome.EVO8b, Genome.EVO8c, Genome.EVO8d};
 		final String genomeLabel[] = {"Default", "Evo-1", "Evo-2", "Evo-6", "Evo-7", "Evo-8a", "Evo-8b", "Evo-8c", "Evo-8d"};
 		
+		// the genomes are used by the initial player, the last item switches to Monte Carlo:
+		AIPlayer alphaBetaPlayer = controller.getAIPlayer(color);
+		AIPlayer monteCarloPlayer = new MonteCarloPlayer();
+		
 		JMenu m = new JMenu(color.toString() + " AI style");
 		ButtonGroup g = new ButtonGroup();
 		JRadioButtonMenuItem mi;
 		for(int i = 0; i < genomeObj.length; i++) {
-			mi = new JRadioButtonMenuItem(new ActionChangeAIStyle(genomeLabel[i], color, genomeObj[i]));
+			mi = new JRadioButtonMenuItem(new ActionChangeAIStyle(genomeLabel[i], color, alphaBetaPlayer, genomeObj[i]));
 			g.add(mi);
 			m.add(mi);
 			if(i == 0) mi.setSelected(true);
 		}
 		
+		m.addSeparator();
+		mi = new JRadioButtonMenuItem(new ActionChangeAIStyle("Monte Carlo", color, monteCarloPlayer, null));
+		g.add(mi);
+		m.add(mi);
+		
 		return m;
 	}
 	
@@ -224,21 +244,30 @@ public class JRodrigoMainWindow extends JFrame {
 		private static final long serialVersionUID = -2044308533845029213L;
 		
 		private BoardCellColor targetPlayer;
+		private AIPlayer player;
 		private Genome genome;
 		
-		public ActionChangeAIStyle(String name, BoardCellColor targetPlayer, Genome genome) {
+		/**
+		 * @param name
+		 * @param targetPlayer The color whose AI is changed
+		 * @param player The AI to use
+		 * @param genome The genome to set (if player is an AlphaBetaPlayer), or null
+		 */
+		public ActionChangeAIStyle(String name, BoardCellColor targetPlayer, AIPlayer player, Genome genome) {
 			super(name, null);
 			this.targetPlayer = targetPlayer;
+			this.player = player;
 			this.genome = genome;
 		}
 
 		@Override
 		public void actionPerformed(ActionEvent e) {
-			AIPlayer p = controller.getAIPlayer(targetPlayer);
-			if(p instanceof AlphaBetaPlayer) {
-				AlphaBetaPlayer abp = (AlphaBetaPlayer) p;
+			if(genome != null && player instanceof AlphaBetaPlayer) {
+				AlphaBetaPlayer abp = (AlphaBetaPlayer) player;
 				abp.setGenome(genome);
 			}
+			if(controller.getAIPlayer(targetPlayer) != player)
+				controller.setAIPlayer(targetPlayer, player);
 		}
 	}
 }
@@ -5,10 +5,12 @@ import java.awt.FlowLayout;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
 import javax.swing.JSlider;
+import javax.swing.SwingUtilities;
 import javax.swing.event.ChangeEvent;
 import javax.swing.event.ChangeListener;
 
 import roderigo.Controller;
+import roderigo.ai.SearchStatistics;
 
 /**
  * Toolbox, part of main window
@@ -25,6 +27,21 @@ public class JToolbox extends JPanel {
 	public final JLabel searchDepthLabel = new JLabel();
 	public final JSlider searchDepth = new JSlider(JSlider.HORIZONTAL);
 	
+	private static final String tlLabelFmt = "Time Limit: (%s)";
+	public final JLabel searchTimeLimitLabel = new JLabel();
+	public final JSlider searchTimeLimit = new JSlider(JSlider.HORIZONTAL);
+	
+	private static final String htlLabelFmt = "Hard Limit: (%s)";
+	public final JLabel searchHardTimeLimitLabel = new JLabel();
+	public final JSlider searchHardTimeLimit = new JSlider(JSlider.HORIZONTAL);
+	
+	private static final String stLabelFmt = "Threads: (%d)";
+	public final JLabel searchThreadsLabel = new JLabel();
+	public final JSlider searchThreads = new JSlider(JSlider.HORIZONTAL);
+	
+	private static final String statsLabelFmt = "Depth: %d, nodes: %d (%d knps)";
+	public final JLabel statisticsLabel = new JLabel();
+	
 	public JToolbox(Controller controller) {
 		this.controller = controller;
 		
@@ -42,8 +59,80 @@ public class JToolbox extends JPanel {
 		});
 		searchDepth.setValue(3);
 		
+		// seconds per move (0 means no limit)
+		searchTimeLimit.setMinimum(0);
+		searchTimeLimit.setMaximum(10);
+		searchTimeLimit.setPaintTicks(true);
+		searchTimeLimit.setSnapToTicks(true);
+		searchTimeLimit.addChangeListener(new ChangeListener() {
+			@Override
+			public void stateChanged(ChangeEvent e) {
+				int tl = searchTimeLimit.getValue();
+				searchTimeLimitLabel.setText(String.format(tlLabelFmt, tl == 0 ? "none" : tl + "s"));
+				JToolbox.this.controller.setSearchTimeLimit(tl * 1000L);
+			}
+		});
+		searchTimeLimit.setValue(0);
+		
+		// seconds per move, stopping also the first iteration (0 means no limit)
+		searchHardTimeLimit.setMinimum(0);
+		searchHardTimeLimit.setMaximum(20);
+		searchHardTimeLimit.setPaintTicks(true);
+		searchHardTimeLimit.setSnapToTicks(true);
+		searchHardTimeLimit.addChangeListener(new ChangeListener() {
+			@Override
+			public void stateChanged(ChangeEvent e) {
+				int htl = searchHardTimeLimit.getValue();
+				searchHardTimeLimitLabel.setText(String.format(htlLabelFmt, htl == 0 ? "none" : htl + "s"));
+				JToolbox.this.controller.setSearchHardTimeLimit(htl * 1000L);
+			}
+		});
+		searchHardTimeLimit.setValue(0);
+		
+		searchThreads.setMinimum(1);
+		searchThreads.setMaximum(Math.max(2, Runtime.getRuntime().availableProcessors()));
+		searchThreads.setPaintTicks(true);
+		searchThreads.setSnapToTicks(true);
+		searchThreads.setValue(controller.getSearchThreads());
+		searchThreadsLabel.setText(String.format(stLabelFmt, searchThreads.getValue()));
+		searchThreads.addChangeListener(new ChangeListener() {
+			@Override
+			public void stateChanged(ChangeEvent e) {
+				int st = searchThreads.getValue();
+				searchThreadsLabel.setText(String.format(stLabelFmt, st));
+				JToolbox.this.controller.setSearchThreads(st);
+			}
+		});
+		
 		setLayout(new FlowLayout());
 		add(searchDepthLabel);
 		add(searchDepth);
+		add(searchTimeLimitLabel);
+		add(searchTimeLimit);
+		add(searchHardTimeLimitLabel);
+		add(searchHardTimeLimit);
+		add(searchThreadsLabel);
+		add(searchThreads);
+		add(statisticsLabel);
+	}
+	
+	/**
+	 * Show the statistics of a search (can be called by any thread)
+	 *
+	 * @param s The statistics (null to clear)
+	 */
+	public void showStatistics(final SearchStatistics s) {
+		SwingUtilities.invokeLater(new Runnable() {
+			@Override
+			public void run() {
+				if(s == null) {
+					statisticsLabel.setText("");
+					statisticsLabel.setToolTipText(null);
+				} else {
+					statisticsLabel.setText(String.format(statsLabelFmt, s.getDepth(), s.getNodes(), s.getNodesPerSecond() / 1000));
+					statisticsLabel.setToolTipText(s.toString());
+				}
+			}
+		});
 	}
 }
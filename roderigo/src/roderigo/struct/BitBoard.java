@@ -0,0 +1,542 @@
+package roderigo.struct;
+
+/**
+ * Bitboard representation of the pieces on a <code>Board</code>.
+ *
+ * Black and white pieces are stored as two 64 bit masks, where the cell
+ * at (row, col) is bit <code>row * cols + col</code>; thus the board
+ * cannot have more than 64 cells.
+ *
+ * Valid moves and flipped pieces are computed with shift-and-mask
+ * flood fills along the eight directions, instead of walking cells
+ * one at a time.
+ *
+ * @author Federico Ferri
+ *
+ */
+public final class BitBoard {
+	public static final int MAX_CELLS = 64;
+	
+	private final BoardGeometry geometry;
+	
+	private final int rows, cols;
+	
+	/**
+	 * Mask of the bits which are inside the board
+	 */
+	private final long full;
+	
+	/**
+	 * Shift tables and fill steps, see <code>BoardGeometry</code>
+	 */
+	private final int shift[];
+	private final long shiftMask[];
+	private final int fillSteps;
+	
+	/**
+	 * The standard 8x8 board uses constant shifts (see <code>validMoves8</code>
+	 * and <code>flips8</code>), which the JIT compiles to much faster code
+	 */
+	private final boolean standard;
+	
+	private static final long NOT_FIRST_LAST_COL = 0x7E7E7E7E7E7E7E7EL;
+	
+	private long black = 0L;
+	private long white = 0L;
+	
+	/**
+	 * Fringe (empty cells adjacent to some piece) and border (pieces adjacent
+	 * to some empty cell), maintained incrementally as pieces are added and removed
+	 */
+	private long fringe = 0L;
+	private long border = 0L;
+	
+	/**
+	 * Stable pieces (which cannot be flipped anymore), computed
+	 * when needed and invalidated by any change of the pieces
+	 */
+	private long stable = 0L;
+	private boolean stableValid = false;
+	
+	public BitBoard(int rows, int cols) {
+		this(BoardGeometry.get(rows, cols));
+	}
+	
+	public BitBoard(BoardGeometry geometry) {
+		this.geometry = geometry;
+		rows = geometry.getNumRows();
+		cols = geometry.getNumColumns();
+		full = geometry.getFullMask();
+		shift = geometry.shift;
+		shiftMask = geometry.shiftMask;
+		fillSteps = geometry.fillSteps;
+		standard = (rows == 8 && cols == 8);
+	}
+	
+	/**
+	 * @return The (shared) static geometry of this board
+	 */
+	public BoardGeometry getGeometry() {
+		return geometry;
+	}
+	
+	public int getNumRows() {
+		return rows;
+	}
+	
+	public int getNumColumns() {
+		return cols;
+	}
+	
+	/**
+	 * @return The mask of all the cells of the board
+	 */
+	public long getFullMask() {
+		return full;
+	}
+	
+	public int index(int row, int col) {
+		return row * cols + col;
+	}
+	
+	public long getBlack() {
+		return black;
+	}
+	
+	public long getWhite() {
+		return white;
+	}
+	
+	/**
+	 * @param color
+	 * @return The mask of pieces of given color, or the mask of empty
+	 *         cells if <code>color</code> is <code>null</code>
+	 */
+	public long getPieces(BoardCellColor color) {
+		if(color == BoardCellColor.BLACK) return black;
+		if(color == BoardCellColor.WHITE) return white;
+		return getEmpty();
+	}
+	
+	public long getOccupied() {
+		return black | white;
+	}
+	
+	public long getEmpty() {
+		return full & ~(black | white);
+	}
+	
+	public BoardCellColor get(int index) {
+		long bit = 1L << index;
+		if((black & bit) != 0) return BoardCellColor.BLACK;
+		if((white & bit) != 0) return BoardCellColor.WHITE;
+		return null;
+	}
+	
+	public void set(int index, BoardCellColor color) {
+		long bit = 1L << index;
+		boolean wasClear = ((black | white) & bit) == 0;
+		black &= ~bit;
+		white &= ~bit;
+		if(color == BoardCellColor.BLACK) black |= bit;
+		else if(color == BoardCellColor.WHITE) white |= bit;
+		
+		if(wasClear && color != null) occupied(index);
+		else if(!wasClear && color == null) cleared(index);
+		
+		stableValid = false;
+	}
+	
+	public void set(long black, long white) {
+		assert (black & white) == 0;
+		this.black = black & full;
+		this.white = white & full;
+		
+		long empty = getEmpty();
+		fringe = empty & neighbours(getOccupied());
+		border = getOccupied() & neighbours(empty);
+		
+		stableValid = false;
+	}
+	
+	public void copyFrom(BitBoard b) {
+		assert b.rows == rows && b.cols == cols;
+		black = b.black;
+		white = b.white;
+		fringe = b.fringe;
+		border = b.border;
+		stable = b.stable;
+		stableValid = b.stableValid;
+	}
+	
+	/**
+	 * @return The mask of empty cells adjacent to some piece
+	 */
+	public long getFringe() {
+		return fringe;
+	}
+	
+	/**
+	 * @return The mask of pieces adjacent to some empty cell
+	 */
+	public long getBorder() {
+		return border;
+	}
+	
+	/**
+	 * @param index
+	 * @return The mask of cells adjacent to the cell at index
+	 */
+	public long adjacent(int index) {
+		return geometry.getAdjacentMask(index);
+	}
+	
+	/**
+	 * @return The mask of stable pieces (of both colors)
+	 */
+	public long getStable() {
+		if(!stableValid) {
+			stable = computeStable();
+			stableValid = true;
+		}
+		
+		return stable;
+	}
+	
+	/**
+	 * @param color
+	 * @return The mask of stable pieces of given color
+	 */
+	public long getStable(BoardCellColor color) {
+		return (color == null) ? 0L : getStable() & getPieces(color);
+	}
+	
+	/**
+	 * Compute the stable pieces of both colors.
+	 *
+	 * A piece is stable if, along each of the four axes, it cannot be
+	 * enclosed: either the line is full, or the piece is at the end of its
+	 * line, or it has a stable neighbour of its color along the axis.
+	 * The set is grown from the empty set until nothing changes, so every
+	 * piece found is really stable (some stable pieces may not be found).
+	 */
+	private long computeStable() {
+		if(standard) return stable8(black, white);
+		
+		long empty = getEmpty();
+		long anchored[] = new long[4];
+		
+		for(int a = 0; a < 4; a++) {
+			long fullLines = 0L;
+			for(long line : geometry.lines[a])
+				if((line & empty) == 0)
+					fullLines |= line;
+			anchored[a] = fullLines | geometry.lineEnds[a];
+		}
+		
+		long stableB = 0L, stableW = 0L;
+		
+		while(true) {
+			long b = black, w = white;
+			
+			for(int a = 0; a < 4; a++) {
+				int d1 = BoardGeometry.axis[a][0].getIndex(), d2 = BoardGeometry.axis[a][1].getIndex();
+				b &= anchored[a] | geometry.shift(stableB, d1) | geometry.shift(stableB, d2);
+				w &= anchored[a] | geometry.shift(stableW, d1) | geometry.shift(stableW, d2);
+			}
+			
+			if(b == stableB && w == stableW)
+				return b | w;
+			
+			stableB = b;
+			stableW = w;
+		}
+	}
+	
+	/**
+	 * Stable pieces on the 8x8 board (same as <code>computeStable</code>):
+	 * full rows and columns are found with and-reductions, full diagonals
+	 * by spreading the empty cells along them
+	 */
+	private static long stable8(long black, long white) {
+		long occupied = black | white, t;
+		
+		t = occupied & (occupied >>> 4);
+		t &= t >>> 2;
+		t &= t >>> 1;
+		long fullH = (t & 0x0101010101010101L) * 0xFFL;
+		
+		t = occupied & Long.rotateRight(occupied, 32);
+		t &= Long.rotateRight(t, 16);
+		t &= Long.rotateRight(t, 8);
+		long fullV = t;
+		
+		long e7 = ~occupied, e9 = ~occupied;
+		for(int i = 0; i < 7; i++) {
+			e7 |= ((e7 >>> 7) & 0x00FEFEFEFEFEFEFEL) | ((e7 << 7) & 0x7F7F7F7F7F7F7F00L);
+			e9 |= ((e9 >>> 9) & 0x007F7F7F7F7F7F7FL) | ((e9 << 9) & 0xFEFEFEFEFEFEFE00L);
+		}
+		
+		final long edges = 0xFF818181818181FFL;
+		long aV = fullV | 0xFF000000000000FFL;
+		long aH = fullH | 0x8181818181818181L;
+		long a7 = ~e7 | edges;
+		long a9 = ~e9 | edges;
+		
+		long stableB = 0L, stableW = 0L;
+		
+		while(true) {
+			long b = black & anchored8(stableB, aV, aH, a7, a9);
+			long w = white & anchored8(stableW, aV, aH, a7, a9);
+			
+			if(b == stableB && w == stableW)
+				return b | w;
+			
+			stableB = b;
+			stableW = w;
+		}
+	}
+	
+	private static long anchored8(long s, long aV, long aH, long a7, long a9) {
+		return (aV | (s << 8) | (s >>> 8))
+			& (aH | ((s << 1) & 0xFEFEFEFEFEFEFEFEL) | ((s >>> 1) & 0x7F7F7F7F7F7F7F7FL))
+			& (a7 | ((s << 7) & 0x7F7F7F7F7F7F7F7FL) | ((s >>> 7) & 0xFEFEFEFEFEFEFEFEL))
+			& (a9 | ((s << 9) & 0xFEFEFEFEFEFEFEFEL) | ((s >>> 9) & 0x7F7F7F7F7F7F7F7FL));
+	}
+	
+	/**
+	 * Update fringe and border after the cell at index has been occupied
+	 */
+	private void occupied(int index) {
+		long bit = 1L << index;
+		long empty = getEmpty();
+		long adj = geometry.getAdjacentMask(index);
+		
+		fringe = (fringe & ~bit) | (adj & empty);
+		if((adj & empty) != 0) border |= bit;
+		
+		// adjacent pieces may have lost their last empty neighbour:
+		for(long q = adj & border; q != 0; q &= q - 1) {
+			int i = Long.numberOfTrailingZeros(q);
+			if((geometry.getAdjacentMask(i) & empty) == 0) border &= ~(1L << i);
+		}
+	}
+	
+	/**
+	 * Update fringe and border after the cell at index has been cleared
+	 */
+	private void cleared(int index) {
+		long bit = 1L << index;
+		long occupied = getOccupied();
+		long adj = geometry.getAdjacentMask(index);
+		
+		border = (border & ~bit) | (adj & occupied);
+		if((adj & occupied) != 0) fringe |= bit;
+		
+		// adjacent empty cells may have lost their last neighbouring piece:
+		for(long q = adj & fringe; q != 0; q &= q - 1) {
+			int i = Long.numberOfTrailingZeros(q);
+			if((geometry.getAdjacentMask(i) & occupied) == 0) fringe &= ~(1L << i);
+		}
+	}
+	
+	/**
+	 * Shift all the bits of x one step in the given direction
+	 *
+	 * @param x
+	 * @param d Direction index (in <code>Direction.allDirections</code> order)
+	 * @return The shifted mask
+	 */
+	private long shift(long x, int d) {
+		int s = shift[d];
+		return (s > 0 ? x << s : x >>> -s) & shiftMask[d];
+	}
+	
+	/**
+	 * @param x
+	 * @return The mask of the cells adjacent to cells in x (in any direction)
+	 */
+	public long neighbours(long x) {
+		return geometry.neighbours(x);
+	}
+	
+	/**
+	 * Compute the set of valid moves for the player owning the <code>own</code>
+	 * pieces, against the <code>opp</code> pieces.
+	 *
+	 * @param own
+	 * @param opp
+	 * @return The mask of valid moves
+	 */
+	public long validMoves(long own, long opp) {
+		if(standard) return validMoves8(own, opp);
+		
+		long empty = full & ~(own | opp);
+		long moves = 0L;
+		
+		for(int d = 0; d < 8; d++) {
+			long t = shift(own, d) & opp;
+			for(int i = 0; i < fillSteps; i++)
+				t |= shift(t, d) & opp;
+			moves |= shift(t, d) & empty;
+		}
+		
+		return moves;
+	}
+	
+	/**
+	 * Compute the pieces that would be flipped placing a piece at
+	 * <code>index</code> for the player owning <code>own</code>
+	 *
+	 * @param index
+	 * @param own
+	 * @param opp
+	 * @return The mask of flipped pieces (zero if the move is not valid)
+	 */
+	public long flips(int index, long own, long opp) {
+		long move = 1L << index;
+		if(((own | opp) & move) != 0) return 0L;
+		if(standard) return flips8(move, own, opp);
+		
+		long flipped = 0L;
+		
+		for(int d = 0; d < 8; d++) {
+			long f = 0L;
+			long t = shift(move, d);
+			while((t & opp) != 0) {
+				f |= t;
+				t = shift(t, d);
+			}
+			if((t & own) != 0)
+				flipped |= f;
+		}
+		
+		return flipped;
+	}
+	
+	/**
+	 * Valid moves on the 8x8 board: the fill along each line is done
+	 * in both directions at once, doubling the shift after two steps
+	 * so that a run of six pieces is covered in four steps
+	 */
+	private static long validMoves8(long own, long opp) {
+		long h = opp & NOT_FIRST_LAST_COL;
+		return (movesAlong(own, h, 1) | movesAlong(own, opp, 8)
+			| movesAlong(own, h, 7) | movesAlong(own, h, 9)) & ~(own | opp);
+	}
+	
+	private static long movesAlong(long own, long opp, int s) {
+		long l = opp & (own << s);
+		long r = opp & (own >>> s);
+		l |= opp & (l << s);
+		r |= opp & (r >>> s);
+		long pl = opp & (opp << s);
+		long pr = pl >>> s;
+		int s2 = s + s;
+		l |= pl & (l << s2);
+		r |= pr & (r >>> s2);
+		l |= pl & (l << s2);
+		r |= pr & (r >>> s2);
+		return (l << s) | (r >>> s);
+	}
+	
+	/**
+	 * Flipped pieces on the 8x8 board, without branches in the fill loops
+	 */
+	private static long flips8(long move, long own, long opp) {
+		long h = opp & NOT_FIRST_LAST_COL;
+		return flipsLeft(move, own, h, 1) | flipsRight(move, own, h, 1)
+			| flipsLeft(move, own, opp, 8) | flipsRight(move, own, opp, 8)
+			| flipsLeft(move, own, h, 7) | flipsRight(move, own, h, 7)
+			| flipsLeft(move, own, h, 9) | flipsRight(move, own, h, 9);
+	}
+	
+	private static long flipsLeft(long move, long own, long opp, int s) {
+		long f = opp & (move << s);
+		f |= opp & (f << s);
+		f |= opp & (f << s);
+		f |= opp & (f << s);
+		f |= opp & (f << s);
+		f |= opp & (f << s);
+		return ((f << s) & own) != 0 ? f : 0L;
+	}
+	
+	private static long flipsRight(long move, long own, long opp, int s) {
+		long f = opp & (move >>> s);
+		f |= opp & (f >>> s);
+		f |= opp & (f >>> s);
+		f |= opp & (f >>> s);
+		f |= opp & (f >>> s);
+		f |= opp & (f >>> s);
+		return ((f >>> s) & own) != 0 ? f : 0L;
+	}
+	
+	public long getValidMoves(BoardCellColor color) {
+		if(color == BoardCellColor.BLACK) return validMoves(black, white);
+		if(color == BoardCellColor.WHITE) return validMoves(white, black);
+		return 0L;
+	}
+	
+	public long getFlips(int index, BoardCellColor color) {
+		if(color == BoardCellColor.BLACK) return flips(index, black, white);
+		if(color == BoardCellColor.WHITE) return flips(index, white, black);
+		return 0L;
+	}
+	
+	/**
+	 * Place a piece of given color at index and flip the given pieces
+	 *
+	 * @param index
+	 * @param color
+	 * @param flipped
+	 */
+	public void apply(int index, BoardCellColor color, long flipped) {
+		long move = 1L << index;
+		if(color == BoardCellColor.BLACK) {
+			black |= move | flipped;
+			white &= ~flipped;
+		} else {
+			white |= move | flipped;
+			black &= ~flipped;
+		}
+		
+		occupied(index);
+		stableValid = false;
+	}
+	
+	/**
+	 * Undo a move previously applied with <code>apply</code>
+	 *
+	 * @param index
+	 * @param color
+	 * @param flipped
+	 */
+	public void unapply(int index, BoardCellColor color, long flipped) {
+		long move = 1L << index;
+		if(color == BoardCellColor.BLACK) {
+			black &= ~(move | flipped);
+			white |= flipped;
+		} else {
+			white &= ~(move | flipped);
+			black |= flipped;
+		}
+		
+		cleared(index);
+		stableValid = false;
+	}
+	
+	/**
+	 * Perform a move for the given player
+	 *
+	 * @param index
+	 * @param color
+	 * @return The mask of flipped pieces (zero if the move was not valid,
+	 *         in which case the board is not modified)
+	 */
+	public long makeMove(int index, BoardCellColor color) {
+		long flipped = getFlips(index, color);
+		if(flipped != 0)
+			apply(index, color, flipped);
+		return flipped;
+	}
+}
@@ -1,8 +1,7 @@
 package roderigo.struct;
 
 import java.io.PrintWriter;
-import java.util.HashMap;
-import java.util.Map;
+import java.io.StringWriter;
 
 /**
  * Representation of an othello board.
@@ -13,11 +12,22 @@ import java.util.Map;
  *
  */
 public class Board {
-	private BoardCell boardCell[][];
+	// static geometry, shared by all boards of the same size
+	private BoardGeometry geometry;
+	
+	// cells (created eagerly, so that every thread sees the same instances)
+	private final BoardCell cellByIndex[];
+	
+	// pieces storage and move generation engine
+	private BitBoard bits;
+	
+	// zobrist hash of the board transformed by each of the 8 transforms
+	// (see transformPoint)
+	private final long hash[] = new long[8];
 	
 	// static cells sets (created first time they are needed)
 	private BoardCellSet allCells = null;
-	private Map<BoardCell.Type, BoardCellSet> cellsByType = null;
+	private BoardCellSet cellsByType[] = null;
 	
 	// cached [dynamic] cell sets
 	private BoardCellSet allPieces = null;
@@ -25,6 +35,11 @@ public class Board {
 	private BoardCellSet fringe = null;
 	private BoardCellSet validMovesW = null;
 	private BoardCellSet validMovesB = null;
+	private BoardCellSet stablePieces = null;
+	
+	// batch update nesting level, and whether cache invalidation is pending
+	private int updateLevel = 0;
+	private boolean cacheInvalidationPending = false;
 	
 	static class BoardManager {
 		private Board board;
@@ -46,10 +61,21 @@ public class Board {
 	 * @param cols
 	 */
 	public Board(int rows, int cols) {
-		initCells(rows, cols);
+		this(BoardGeometry.get(rows, cols));
 		setClassicInitialState();
 	}
 	
+	/**
+	 * Construct an empty board with the given geometry
+	 * @param g
+	 */
+	private Board(BoardGeometry g) {
+		geometry = g;
+		bits = new BitBoard(g);
+		cellByIndex = new BoardCell[g.getSize()];
+		initCells();
+	}
+	
 	@Override
 	public boolean equals(Object obj) {
 		if(obj == null) return false;
@@ -59,14 +85,12 @@ public class Board {
 		if(getNumRows() != b.getNumRows() || getNumColumns() != b.getNumColumns())
 			return false;
 		
-		for(int row = 0; row < getNumRows(); row++) {
-			for(int col = 0; col < getNumColumns(); col++) {
-				if(get(row, col).getInt() != b.get(row, col).getInt())
-					return false;
-			}
-		}
-		
-		return true;
+		return bits.getBlack() == b.bits.getBlack() && bits.getWhite() == b.bits.getWhite();
+	}
+	
+	@Override
+	public int hashCode() {
+		return (int) (hash[0] ^ (hash[0] >>> 32));
 	}
 	
 	/**
@@ -74,21 +98,25 @@ public class Board {
 	 * according to BoardCellColor.fromInt() conversion rule
 	 */
 	public Board(int data[][]) {
-		initCells(data.length, data[0].length);
+		this(BoardGeometry.get(data.length, data[0].length));
 		
-		for(int row = 0; row < getNumRows(); row++) {
-			for(int col = 0; col < getNumColumns(); col++) {
-				boardCell[row][col].setFromInt(data[row][col]);
+		beginUpdate();
+		try {
+			for(int row = 0; row < getNumRows(); row++) {
+				for(int col = 0; col < getNumColumns(); col++) {
+					setPiece(geometry.index(row, col), BoardCellColor.fromInt(data[row][col]));
+				}
 			}
+		} finally {
+			endUpdate();
 		}
 	}
 	
-	private void initCells(int rows, int cols) {
-		boardCell = new BoardCell[rows][cols];
-		
+	private void initCells() {
 		for(int row = 0; row < getNumRows(); row++) {
 			for(int col = 0; col < getNumColumns(); col++) {
-				boardCell[row][col] = new BoardCell(manager, row, col);
+				BoardCell cell = new BoardCell(manager, row, col);
+				cellByIndex[cell.index] = cell;
 			}
 		}
 	}
@@ -97,10 +125,15 @@ public class Board {
 		if(getNumRows() >= 2 && getNumColumns() >= 2) {
 			// classic initial board state:
 			int cr = getNumRows() / 2, cc = getNumColumns() / 2;
-			boardCell[cr - 1][cc - 1].setWhite();
-			boardCell[cr][cc].setWhite();
-			boardCell[cr - 1][cc].setBlack();
-			boardCell[cr][cc - 1].setBlack();
+			beginUpdate();
+			try {
+				setPiece(geometry.index(cr - 1, cc - 1), BoardCellColor.WHITE);
+				setPiece(geometry.index(cr, cc), BoardCellColor.WHITE);
+				setPiece(geometry.index(cr - 1, cc), BoardCellColor.BLACK);
+				setPiece(geometry.index(cr, cc - 1), BoardCellColor.BLACK);
+			} finally {
+				endUpdate();
+			}
 		}
 	}
 	
@@ -108,14 +141,21 @@ public class Board {
 	 * @return The number of columns
 	 */
 	public int getNumRows() {
-		return boardCell.length;
+		return geometry.getNumRows();
 	}
 	
 	/**
 	 * @return The number of rows
 	 */
 	public int getNumColumns() {
-		return boardCell[0].length;
+		return geometry.getNumColumns();
+	}
+	
+	/**
+	 * @return The (shared) static geometry of this board
+	 */
+	public BoardGeometry getGeometry() {
+		return geometry;
 	}
 	
 	/**
@@ -127,7 +167,7 @@ public class Board {
 	 *         that is: 0 <= row < rows and 0 <= col < cols
 	 */
 	public boolean boundCheck(int row, int col) {
-		return (row >= 0 && row < getNumRows() && col >= 0 && col < getNumColumns());
+		return geometry.boundCheck(row, col);
 	}
 	
 	/**
@@ -138,7 +178,74 @@ public class Board {
 	 * @return The cell at row, col; or null if the position is out of bounds
 	 */
 	public BoardCell get(int row, int col) {
-		return boundCheck(row, col) ? boardCell[row][col] : null;
+		return boundCheck(row, col) ? get(geometry.index(row, col)) : null;
+	}
+	
+	/**
+	 * Method to access a specific cell by its bit index
+	 * (see <code>BitBoard</code>)
+	 * 
+	 * @param index
+	 * @return The cell at index
+	 */
+	public BoardCell get(int index) {
+		return cellByIndex[index];
+	}
+	
+	/**
+	 * @return The bitboard holding the pieces of this board
+	 */
+	public BitBoard getBitBoard() {
+		return bits;
+	}
+	
+	/**
+	 * @param color
+	 * @return The mask of pieces of the given color (or of empty cells if color is null)
+	 */
+	public long getPiecesMask(BoardCellColor color) {
+		return bits.getPieces(color);
+	}
+	
+	/**
+	 * Set all the pieces of the board at once
+	 *
+	 * @param black The mask of black pieces
+	 * @param white The mask of white pieces (must not intersect black)
+	 */
+	public void setPiecesMask(long black, long white) {
+		if((black & white) != 0 || ((black | white) & ~geometry.getFullMask()) != 0)
+			throw new RuntimeException("Invalid pieces masks");
+		
+		bits.set(black, white);
+		rehash();
+		invalidateCache();
+	}
+	
+	/**
+	 * Export the board as an int array, according to BoardCellColor.toInt()
+	 * conversion rule (the inverse of <code>Board(int[][])</code>)
+	 *
+	 * @return The int array
+	 */
+	public int[][] toIntArray() {
+		int data[][] = new int[getNumRows()][getNumColumns()];
+		
+		for(int row = 0; row < getNumRows(); row++)
+			for(int col = 0; col < getNumColumns(); col++)
+				data[row][col] = BoardCellColor.toInt(bits.get(geometry.index(row, col)));
+		
+		return data;
+	}
+	
+	/**
+	 * Build a set of cells from a mask
+	 * 
+	 * @param mask
+	 * @return The set of cells whose bits are set in mask
+	 */
+	BoardCellSet cellsOf(long mask) {
+		return BoardCellSet.fromMask(manager, mask);
 	}
 	
 	/**
@@ -159,17 +266,7 @@ public class Board {
 	 */
 	public BoardCellSet getAllCells() {
 		if(allCells == null) {
-			allCells = new BoardCellSet(manager, getNumRows() * getNumColumns());
-			
-			cellsByType = new HashMap<BoardCell.Type, BoardCellSet>();
-			for(BoardCell.Type t : BoardCell.Type.values()) cellsByType.put(t, new BoardCellSet(manager));
-			
-			for(int row = 0; row < getNumRows(); row++) {
-				for(int col = 0; col < getNumColumns(); col++) {
-					allCells.add(manager, boardCell[row][col]);
-					cellsByType.get(boardCell[row][col].getType()).add(manager, boardCell[row][col]);
-				}
-			}
+			allCells = cellsOf(geometry.getFullMask());
 		}
 		
 		return allCells;
@@ -183,10 +280,14 @@ public class Board {
 	 */
 	public BoardCellSet getCellsOfType(BoardCell.Type type) {
 		if(cellsByType == null) {
-			getAllCells();
+			cellsByType = new BoardCellSet[BoardCell.Type.values().length];
+		}
+		
+		if(cellsByType[type.ordinal()] == null) {
+			cellsByType[type.ordinal()] = cellsOf(geometry.getTypeMask(type));
 		}
 		
-		return cellsByType.get(type);
+		return cellsByType[type.ordinal()];
 	}
 	
 	/**
@@ -196,13 +297,7 @@ public class Board {
 	 */
 	public BoardCellSet getAllPieces() {
 		if(allPieces == null) {
-			BoardCellSet result = new BoardCellSet(manager);
-			
-			for(BoardCell cell : getAllCells())
-				if(!cell.isClear())
-					result.add(manager, cell);
-			
-			allPieces = result;
+			allPieces = cellsOf(bits.getOccupied());
 		}
 		
 		return allPieces;
@@ -227,32 +322,27 @@ public class Board {
 		if(b.getNumRows() != getNumRows() || b.getNumColumns() != getNumColumns())
 			throw new RuntimeException("Board size mismatch trying to do a copy");
 		
-		int p[] = new int[2], q[] = new int[2];
-		
-		for(p[0] = 0; p[0] < getNumRows(); p[0]++) {
-			for(p[1] = 0; p[1] < getNumColumns(); p[1]++) {
-				transformPoint(p, q, transform);
-				boardCell[p[0]][p[1]].copyFrom(b.boardCell[q[0]][q[1]]);
-			}
+		if(transform == 0) {
+			bits.copyFrom(b.bits);
+		} else {
+			assert getNumRows() == getNumColumns();
+			bits.set(geometry.transform(b.bits.getBlack(), transform), geometry.transform(b.bits.getWhite(), transform));
 		}
-
-		// maintain static and cached sets:
-		allCells = b.allCells;
-		cellsByType = b.cellsByType;
-		allPieces = b.allPieces;
-		border = b.border;
-		fringe = b.fringe;
-		validMovesW = b.validMovesW;
-		validMovesB = b.validMovesB;
+		
+		rehash();
+		
+		// cached sets hold cells of b, so they cannot be shared:
+		invalidateCache();
 	}
 	
 	/**
-	 * Clone the board
+	 * Clone the board (only the pieces are copied: the geometry is shared)
 	 */
 	public Board clone() {
-		Board b = new Board(getNumRows(), getNumColumns());
+		Board b = new Board(geometry);
 		
-		b.copyFrom(this);
+		b.bits.copyFrom(bits);
+		System.arraycopy(hash, 0, b.hash, 0, hash.length);
 		
 		return b;
 	}
@@ -261,21 +351,26 @@ public class Board {
 	 * Clear the board (all cells empty)
 	 */
 	public void clearAll() {
-		for(BoardCell cell : getAllCells()) {
-			cell.clear();
-		}
+		bits.set(0L, 0L);
+		rehash();
+		invalidateCache();
 	}
 	
 	/**
 	 * Reset the board to the initial game position (2 blacks and 2 whites)
 	 */
 	public void reset() {
-		clearAll();
-		
-		boardCell[3][3].setWhite();
-		boardCell[4][4].setWhite();
-		boardCell[3][4].setBlack();
-		boardCell[4][3].setBlack();
+		beginUpdate();
+		try {
+			clearAll();
+			
+			setPiece(geometry.index(3, 3), BoardCellColor.WHITE);
+			setPiece(geometry.index(4, 4), BoardCellColor.WHITE);
+			setPiece(geometry.index(3, 4), BoardCellColor.BLACK);
+			setPiece(geometry.index(4, 3), BoardCellColor.BLACK);
+		} finally {
+			endUpdate();
+		}
 	}
 	
 	/**
@@ -287,144 +382,71 @@ public class Board {
 	 * @return The above mentioned set
 	 */
 	public BoardCellSet between(BoardCell a, BoardCell b) {
-		BoardCellSet result = new BoardCellSet(manager);
+		if(a == b)
+			return cellsOf(0L);
 		
-		int dr = (b.row - a.row);
-		int dc = (b.col - a.col);
+		long target = 1L << b.index;
 		
-		// two pieces not in position able to enclose any pieces
-		if(!(dr == 0 || dc == 0) && !(Math.abs(dr) == Math.abs(dc)))
-			return null;
-		
-		// adjacent or overlapping cells -> return empty
-		if(Math.abs(dr) == 1 || Math.abs(dc) == 1 || a == b)
-			return result;
-		
-		// normalize direction
-		dr = (dr == 0) ? 0 : dr / Math.abs(dr);
-		dc = (dc == 0) ? 0 : dc / Math.abs(dc);
-
-		int row = a.row + dr;
-		int col = a.col + dc;
-		
-		while(true) {
-			result.add(manager, boardCell[row][col]);
-			row += dr;
-			col += dc;
-			if(b.row == row && b.col == col) break;
-		}
-		
-		return result;
-	}
-	
-	/**
-	 * Starting from cell, and always proceeding in the given direction, try to find
-	 * one or more pieces of opposite color, enclosed by a piece of given <code>color</code>, and
-	 * return the enclosing piece.
-	 * 
-	 * <code>cell</code> is usually empty. If not, it overrides <code>color</code>.
-	 * 
-	 * @param cell The cell to start the search from
-	 * @param dir The direction of the search
-	 * @param color Color of the enclosing piece
-	 * @return The enclosing piece
-	 */
-	private BoardCell findEnclosingPiece(BoardCell cell, Direction dir, BoardCellColor color) {
-		if(!cell.isClear())
-			color = cell.getColor();
-		
-		BoardCellColor color1;
-		boolean foundOpp = false;
-		boolean foundMine = false;
-		
-		cell = cell.adjacentCell(dir);
-		while(cell != null && !cell.isClear()) {
-			color1 = cell.getColor();
-			
-			if(color1 == color) {
-				if(foundOpp) foundMine = true;
-				break;
-			} else {
-				if(!foundMine) foundOpp = true;
+		for(int d = 0; d < 8; d++) {
+			if((geometry.getRayMask(a.index, d) & target) != 0) {
+				// the ray from a, up to (and excluding) b:
+				return cellsOf(geometry.getRayMask(a.index, d) & ~geometry.getRayMask(b.index, d) & ~target);
 			}
-			
-			cell = cell.adjacentCell(dir);
 		}
 		
-		if(foundOpp && foundMine) return cell;
-		else return null;
+		// two pieces not in position able to enclose any pieces
+		return null;
 	}
-
+	
 	/**
 	 * Fringe is the contour of empty cells surrounding
 	 * the occupied cells.
 	 * 
-	 * It is used internally for enumerating valid moves,
-	 * since valid moves must necessarily be in the fringe.
+	 * It is maintained incrementally by the bitboard as
+	 * pieces are placed or removed.
 	 * 
 	 * @return The set of fringe cells
 	 */
 	public BoardCellSet getFringe() {
 		if(fringe == null) {
-			BoardCellSet result = new BoardCellSet(manager);
-			
-			getFringe(get(4, 4), new BoardCellSet(manager), result);
-			
-			fringe = result;
+			fringe = cellsOf(bits.getFringe());
 		}
 		
 		return fringe;
 	}
 	
-	private void getFringe(BoardCell cell, BoardCellSet visited, BoardCellSet result) {
-		visited.add(manager, cell);
-		
-		BoardCellSet a = cell.adjacentCells();
-		
-		for(BoardCell a0 : a) {
-			if(a0.isClear()) {
-				result.add(manager, a0);
-			} else {
-				if(!visited.contains(a0)) {
-					getFringe(a0, visited, result);
-				}					
-			}
-		}
-	}
-	
 	/**
 	 * The border is the set of cells adjacent
 	 * to the empty cells.
 	 * 
+	 * It is maintained incrementally by the bitboard as
+	 * pieces are placed or removed.
+	 *
 	 * @return The set of border cells
 	 */
 	public BoardCellSet getBorder() {
 		if(border == null) {
-			BoardCellSet result = new BoardCellSet(manager);
-			
-			getBorder(get(4, 4), new BoardCellSet(manager), result);
-			
-			border = result;
+			border = cellsOf(bits.getBorder());
 		}
 		
 		return border;
 	}
 	
-	private void getBorder(BoardCell cell, BoardCellSet visited, BoardCellSet result) {
-		if(cell.isClear()) return;
-		visited.add(manager, cell);
-		
-		BoardCellSet a = cell.adjacentCells();
-		
-		if(a.containsAnEmptyCell()) {
-			result.add(manager, cell);
+	/**
+	 * Stable pieces are the pieces that cannot be flipped anymore,
+	 * whatever moves are made (see <code>BitBoard.getStable()</code>).
+	 *
+	 * The set is computed for both colors at once, and cached
+	 * until the board changes.
+	 *
+	 * @return The set of stable pieces
+	 */
+	public BoardCellSet getStablePieces() {
+		if(stablePieces == null) {
+			stablePieces = cellsOf(bits.getStable());
 		}
 		
-		for(BoardCell a0 : a) {
-			if(!visited.contains(a0)) {
-				getBorder(a0, visited, result);
-			}					
-		}
+		return stablePieces;
 	}
 	
 	/**
@@ -436,15 +458,33 @@ public class Board {
 	 * @return
 	 */
 	public boolean isValidMove(BoardCell cell, BoardCellColor color) {
-		if(!cell.isClear())
-			return false;
-		
-		for(Direction dir : Direction.allDirections) {
-			BoardCell cell2 = findEnclosingPiece(cell, dir, color);
-			if(cell2 != null) return true;
-		}
-		
-		return false;
+		return bits.getFlips(cell.index, color) != 0;
+	}
+	
+	/**
+	 * Return the pieces that would be flipped if the given player
+	 * (identified by <code>color</code>) moved at <code>cell</code>;
+	 * the board is not modified
+	 *
+	 * @param cell
+	 * @param color
+	 * @return The set of flipped pieces, which is empty
+	 *         if the move is not valid
+	 */
+	public BoardCellSet getFlips(BoardCell cell, BoardCellColor color) {
+		return cellsOf(bits.getFlips(cell.index, color));
+	}
+	
+	/**
+	 * Same as <code>getFlips</code>, but without allocating a set
+	 *
+	 * @param index The bit index of the cell
+	 * @param color
+	 * @return The mask of flipped pieces, which is zero
+	 *         if the move is not valid
+	 */
+	public long getFlipsMask(int index, BoardCellColor color) {
+		return bits.getFlips(index, color);
 	}
 	
 	/**
@@ -473,14 +513,18 @@ public class Board {
 	}
 	
 	private BoardCellSet getValidMoves_noCache(BoardCellColor color) {
-		BoardCellSet result = new BoardCellSet(manager);
-		
-		BoardCellSet fringe = getFringe();
-		for(BoardCell cell : fringe)
-			if(isValidMove(cell, color))
-				result.add(manager, cell);
-		
-		return result;
+		return cellsOf(bits.getValidMoves(color));
+	}
+	
+	/**
+	 * Return the mask of valid moves for a given player
+	 * (identified by <code>color</code>)
+	 * 
+	 * @param color
+	 * @return
+	 */
+	public long getValidMovesMask(BoardCellColor color) {
+		return bits.getValidMoves(color);
 	}
 
 	/**
@@ -493,26 +537,41 @@ public class Board {
 	 *         <code>false</code> otherwise
 	 */
 	public boolean makeMove(BoardCell cell, BoardCellColor color) {
-		cell = conformCell(cell);
-		
-		if(!cell.isClear()) return false;
-		
-		BoardCellSet enclosingPieces = new BoardCellSet(manager);
-		
-		for(Direction dir : Direction.allDirections) {
-			BoardCell e = findEnclosingPiece(cell, dir, color);
-			if(e != null) enclosingPieces.add(manager, e);
-		}
+		return makeMove(bits.index(cell.row, cell.col), color) != 0;
+	}
+	
+	/**
+	 * Perform a move for the given player
+	 * (identified by <code>color</code>)
+	 * 
+	 * @param index The bit index of the cell
+	 * @param color
+	 * @return The mask of flipped pieces, which is zero
+	 *         if the move was not valid
+	 */
+	public long makeMove(int index, BoardCellColor color) {
+		long flipped = bits.makeMove(index, color);
 		
-		if(enclosingPieces.isEmpty()) return false;
-
-		for(BoardCell cell1 : enclosingPieces) {
-			between(cell, cell1).flipColor();			
+		if(flipped != 0) {
+			updateHash(index, color, flipped);
+			invalidateCache();
 		}
 		
-		cell.setColor(color);
+		return flipped;
+	}
+	
+	/**
+	 * Take back a move made with <code>makeMove</code>
+	 * 
+	 * @param index The bit index of the cell
+	 * @param color The player who made the move
+	 * @param flipped The mask returned by <code>makeMove</code>
+	 */
+	public void unmakeMove(int index, BoardCellColor color, long flipped) {
+		bits.unapply(index, color, flipped);
+		updateHash(index, color, flipped);
 		
-		return true;
+		invalidateCache();
 	}
 	
 	/**
@@ -552,14 +611,130 @@ public class Board {
 	}
 	
 	/**
-	 * Invalidate the cache
+	 * @return The board as printed by <code>print</code>
+	 */
+	@Override
+	public String toString() {
+		StringWriter sw = new StringWriter();
+		print(new PrintWriter(sw));
+		return sw.toString();
+	}
+	
+	/**
+	 * Low level color setter, used by <code>BoardCell</code>
+	 * 
+	 * @param cell
+	 * @param color
+	 */
+	void setColor(BoardCell cell, BoardCellColor color) {
+		setPiece(cell.index, color);
+	}
+	
+	private void setPiece(int index, BoardCellColor color) {
+		togglePiece(bits.get(index), index);
+		bits.set(index, color);
+		togglePiece(color, index);
+		
+		invalidateCache();
+	}
+	
+	/**
+	 * ZOBRIST HASHING
+	 */
+	
+	/**
+	 * @return The zobrist hash of this board
+	 */
+	public long getHash() {
+		return hash[0];
+	}
+	
+	/**
+	 * @param transform
+	 * @return The zobrist hash of this board transformed with the given
+	 *         transform (the same as <code>getHash()</code> of a board
+	 *         filled with <code>copyFrom(this, transform)</code>)
+	 */
+	public long getHash(int transform) {
+		return hash[transform];
+	}
+	
+	/**
+	 * The symmetric hash is the same for all the 8 transforms of a position
+	 * (only for square boards; otherwise it is the same as <code>getHash()</code>)
+	 * 
+	 * @return The minimum of the hashes of the transformed boards
+	 */
+	public long getSymmetricHash() {
+		long h = hash[0];
+		for(int t = 1; t < 8; t++)
+			if(hash[t] < h) h = hash[t];
+		return h;
+	}
+	
+	private void togglePiece(BoardCellColor color, int index) {
+		if(color == null) return;
+		for(int t = 0; t < 8; t++)
+			hash[t] ^= Zobrist.piece(color, geometry.getInverseTransform(t)[index]);
+	}
+	
+	private void updateHash(int index, BoardCellColor color, long flipped) {
+		hash[0] ^= Zobrist.piece(color, index) ^ Zobrist.flips(flipped);
+		for(int t = 1; t < 8; t++) {
+			int map[] = geometry.getInverseTransform(t);
+			long h = Zobrist.piece(color, map[index]);
+			for(long f = flipped; f != 0; f &= f - 1)
+				h ^= Zobrist.flip(map[Long.numberOfTrailingZeros(f)]);
+			hash[t] ^= h;
+		}
+	}
+	
+	private void rehash() {
+		for(int t = 0; t < 8; t++)
+			hash[t] = 0L;
+		for(long m = bits.getOccupied(); m != 0; m &= m - 1) {
+			int index = Long.numberOfTrailingZeros(m);
+			togglePiece(bits.get(index), index);
+		}
+	}
+	
+	/**
+	 * Begin a batch of changes (e.g. setting many cells one by one):
+	 * the cache is invalidated only once, by the matching <code>endUpdate()</code>.
+	 *
+	 * Batches can be nested; cached sets must not be used inside a batch.
+	 */
+	public void beginUpdate() {
+		updateLevel++;
+	}
+	
+	/**
+	 * End a batch of changes started with <code>beginUpdate()</code>
+	 */
+	public void endUpdate() {
+		assert updateLevel > 0;
+		
+		if(--updateLevel == 0 && cacheInvalidationPending) {
+			cacheInvalidationPending = false;
+			invalidateCache();
+		}
+	}
+	
+	/**
+	 * Invalidate the cache (deferred to the end of the batch, if inside one)
 	 */
 	void invalidateCache() {
+		if(updateLevel > 0) {
+			cacheInvalidationPending = true;
+			return;
+		}
+		
 		allPieces = null;
 		border = null;
 		fringe = null;
 		validMovesW = null;
 		validMovesB = null;
+		stablePieces = null;
 	}
 	
 	/**
@@ -567,9 +742,12 @@ public class Board {
 	 */
 	
 	public void transformPoint(int[] in, int[] out, int transformType) {
-		assert in.length == 2 && out.length == 2;
 		assert getNumRows() == getNumColumns();
-		int n = getNumRows();
+		transformPoint(getNumRows(), in, out, transformType);
+	}
+	
+	public static void transformPoint(int n, int[] in, int[] out, int transformType) {
+		assert in.length == 2 && out.length == 2;
 		final int R = 0, C = 1;
 		switch(transformType) {
 		case 0: // identity
@@ -607,33 +785,33 @@ public class Board {
 		}
 	}
 	
+	/**
+	 * Compare two transforms of this board (see <code>BoardGeometry.compareTransform</code>)
+	 *
+	 * @param t1
+	 * @param t2
+	 * @return A negative, zero or positive value
+	 */
 	public int compareTransform(int t1, int t2) {
-		int p[] = new int[2], q[] = new int[2], r[] = new int[2];
 		assert getNumRows() == getNumColumns();
-		int n = getNumRows(), c;
-		BoardCell c1, c2;
-		Integer i1, i2;
-		for(p[0] = 0; p[0] < n; p[0]++) {
-			for(p[1] = 0; p[1] < n; p[1]++) {
-				transformPoint(p, q, t1);
-				transformPoint(p, r, t2);
-				c1 = get(q[0], q[1]);
-				c2 = get(r[0], r[1]);
-				i1 = (c1.isBlack() ? 1 : 0) + (c1.isWhite() ? 2 : 0);
-				i2 = (c2.isBlack() ? 1 : 0) + (c2.isWhite() ? 2 : 0);
-				c = i1.compareTo(i2);
-				if(c != 0) return c;
-			}
-		}
-		return 0;
+		return geometry.compareTransform(bits.getBlack(), bits.getWhite(), t1, t2);
 	}
 	
+	/**
+	 * @return The transform giving the canonical form of this board, which is
+	 *         the same for all the symmetric positions
+	 *         (see <code>BoardGeometry.getPreferredTransform</code>)
+	 */
 	public int getPreferredTransform() {
-		int preferredTransform = 0;
-		for(int t = 1; t < 8; t++) {
-			if(compareTransform(preferredTransform, t) < 0)
-				preferredTransform = t;
-		}
-		return preferredTransform;
+		return geometry.getPreferredTransform(bits.getBlack(), bits.getWhite());
+	}
+	
+	/**
+	 * @return The zobrist hash of the canonical form of this board (the same as
+	 *         <code>getHash()</code> of a board filled with
+	 *         <code>copyFrom(this, getPreferredTransform())</code>)
+	 */
+	public long getCanonicalHash() {
+		return hash[getPreferredTransform()];
 	}
 }
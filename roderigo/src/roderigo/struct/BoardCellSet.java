@@ -1,12 +1,14 @@
 package roderigo.struct;
 
-import java.util.Collections;
-import java.util.HashSet;
 import java.util.Iterator;
+import java.util.NoSuchElementException;
 
 /**
  * A <code>Set</code> of <code>BoardCell</code> elements with some additional utility
  * functions.
+ *
+ * The set is a 64 bit mask of cell indices (see <code>BitBoard</code>), so set
+ * algebra is done with bitwise operations and no hashing is involved.
  * 
  * NOTE: cell sets should be immutable, except for Board which produces them;
  *       only Board can create a new BoardCellSet, or BoardCellSet itself can.
@@ -17,53 +19,86 @@ import java.util.Iterator;
 public class BoardCellSet implements Iterable<BoardCell> {
 	private static final long serialVersionUID = -3949663115732496052L;
 	
-	private final HashSet<BoardCell> cellSet;
+	private long mask;
 	
 	private final Board.BoardManager manager; // to allow create other BoardCellSets
 	
 	public BoardCellSet(Board.BoardManager m) {
-		assert m != null;
-		manager = m;
-		cellSet = new HashSet<BoardCell>();
+		this(m, 0L);
 	}
 	
 	public BoardCellSet(Board.BoardManager m, int initialCapacity) {
+		this(m, 0L);
+	}
+	
+	private BoardCellSet(Board.BoardManager m, long mask) {
 		assert m != null;
 		manager = m;
-		cellSet = new HashSet<BoardCell>(initialCapacity);
+		this.mask = mask;
+	}
+	
+	/**
+	 * @param m
+	 * @param mask
+	 * @return The set of cells whose indices are set in mask
+	 */
+	static BoardCellSet fromMask(Board.BoardManager m, long mask) {
+		return new BoardCellSet(m, mask);
 	}
 	
 	public void add(Board.BoardManager m, BoardCell cell) {
 		assert m == manager;
-		cellSet.add(cell);
+		assert cell.getBoard() == manager.getBoard();
+		mask |= 1L << cell.index;
+	}
+	
+	/**
+	 * @return The mask of the cell indices in this set
+	 */
+	public long getMask() {
+		return mask;
 	}
 	
 	public int size() {
-		return cellSet.size();
+		return Long.bitCount(mask);
 	}
 	
 	public boolean isEmpty() {
-		return cellSet.isEmpty();
+		return mask == 0;
 	}
 	
 	public Iterator<BoardCell> iterator() {
-		return Collections.unmodifiableSet(cellSet).iterator();
+		return new Iterator<BoardCell>() {
+			private long remaining = mask;
+			
+			@Override
+			public boolean hasNext() {
+				return remaining != 0;
+			}
+			
+			@Override
+			public BoardCell next() {
+				if(remaining == 0) throw new NoSuchElementException();
+				int index = Long.numberOfTrailingZeros(remaining);
+				remaining &= remaining - 1;
+				return manager.getBoard().get(index);
+			}
+			
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
 	}
 	
 	public boolean contains(BoardCell cell) {
-		return cellSet.contains(cell);
+		return cell.getBoard() == manager.getBoard() && (mask & (1L << cell.index)) != 0;
 	}
 	
 	// subsets
 	
 	public BoardCellSet piecesOfColor(BoardCellColor color) {
-		BoardCellSet result = new BoardCellSet(manager, size());
-		
-		for(BoardCell cell : this)
-			if(cell.getColor() == color)
-				result.add(manager, cell);
-		
-		return result;
+		return new BoardCellSet(manager, mask & manager.getBoard().getPiecesMask(color));
 	}
 	
 	public BoardCellSet emptyCells() {
@@ -83,23 +118,22 @@ public class BoardCellSet implements Iterable<BoardCell> {
 	}
 	
 	public void flipColor() {
-		for(BoardCell cell : this)
-			cell.flipColor();
+		Board board = manager.getBoard();
+		board.beginUpdate();
+		try {
+			for(BoardCell cell : this)
+				cell.flipColor();
+		} finally {
+			board.endUpdate();
+		}
 	}
 	
 	public boolean containsAnEmptyCell() {
-		for(BoardCell cell : this) {
-			if(cell.isClear())
-				return true;
-		}
-		return false;
+		return (mask & manager.getBoard().getPiecesMask(null)) != 0;
 	}
 	
 	public static BoardCellSet union(BoardCellSet a, BoardCellSet b) {
 		assert a.manager == b.manager;
-		BoardCellSet c = new BoardCellSet(a.manager, a.size() + b.size());
-		for(BoardCell cell : a) c.add(a.manager, cell);
-		for(BoardCell cell : b) c.add(b.manager, cell);
-		return c;
+		return new BoardCellSet(a.manager, a.mask | b.mask);
 	}
 }
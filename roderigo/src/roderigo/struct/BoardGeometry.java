@@ -0,0 +1,466 @@
+package roderigo.struct;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Static geometry of a board of a given size: everything that does not depend
+ * on the pieces (neighbours, rays, cell types, symmetries, shift masks used
+ * by <code>BitBoard</code>).
+ *
+ * Geometries are immutable and built once per size; all the boards of
+ * the same size (and their clones) share the same instance.
+ *
+ * Directions are identified by their index in <code>Direction.allDirections</code>
+ * (see <code>Direction.getIndex()</code>); transforms are identified by the
+ * same number used by <code>Board.transformPoint</code>.
+ *
+ * @author Federico Ferri
+ *
+ */
+public final class BoardGeometry {
+	private final int rows, cols, size;
+	
+	/**
+	 * Mask of the bits which are inside the board
+	 */
+	private final long full;
+	
+	/**
+	 * For each direction: shift amount (positive means shift left) and
+	 * the mask of the cells which can be reached by shifting (i.e. without
+	 * wrapping around columns)
+	 */
+	final int shift[] = new int[8];
+	final long shiftMask[] = new long[8];
+	
+	/**
+	 * Number of extra propagation steps needed to cover the longest
+	 * run of pieces enclosable in a line
+	 */
+	final int fillSteps;
+	
+	/**
+	 * For each cell, the mask of its adjacent cells
+	 */
+	private final long adjacent[];
+	
+	/**
+	 * For each cell and direction, the index of the adjacent cell (-1 if outside)
+	 */
+	private final int neighbour[][];
+	
+	/**
+	 * For each cell and direction, the cells met walking in that
+	 * direction up to the edge (the cell itself excluded), in order
+	 */
+	private final int ray[][][];
+	private final long rayMask[][];
+	
+	/**
+	 * The four axes (pairs of opposite directions); for each axis, the masks
+	 * of the lines of the board parallel to it, and the mask of the cells
+	 * lying at one end of their line (i.e. missing a neighbour along the axis)
+	 */
+	static final Direction axis[][] = {
+		{Direction.N, Direction.S},
+		{Direction.E, Direction.W},
+		{Direction.NE, Direction.SW},
+		{Direction.NW, Direction.SE}
+	};
+	final long lines[][] = new long[4][];
+	final long lineEnds[] = new long[4];
+	
+	private final BoardCell.Type type[];
+	private final long typeMask[] = new long[BoardCell.Type.values().length];
+	private final long cornerMask, sideMask;
+	
+	/**
+	 * For each transform: the index of the cell T(p) for each cell p,
+	 * and the inverse map (the index of the cell of the transformed board
+	 * holding the piece which is at a given index on this board).
+	 * Non square boards only support the identity, so all maps are the identity.
+	 */
+	private final int transform[][];
+	private final int inverseTransform[][];
+	
+	private static final Map<Integer, BoardGeometry> cache = new HashMap<Integer, BoardGeometry>();
+	
+	/**
+	 * @param rows
+	 * @param cols
+	 * @return The (shared) geometry of the boards of the given size
+	 */
+	public static synchronized BoardGeometry get(int rows, int cols) {
+		Integer key = rows * (BitBoard.MAX_CELLS + 1) + cols;
+		BoardGeometry g = cache.get(key);
+		
+		if(g == null) {
+			g = new BoardGeometry(rows, cols);
+			cache.put(key, g);
+		}
+		
+		return g;
+	}
+	
+	private BoardGeometry(int rows, int cols) {
+		if(rows < 1 || cols < 1 || rows * cols > BitBoard.MAX_CELLS)
+			throw new RuntimeException("Unsupported board size " + rows + "x" + cols);
+		
+		this.rows = rows;
+		this.cols = cols;
+		size = rows * cols;
+		full = (size == 64) ? -1L : ((1L << size) - 1);
+		
+		long firstCol = 0L, lastCol = 0L;
+		for(int row = 0; row < rows; row++) {
+			firstCol |= 1L << (row * cols);
+			lastCol |= 1L << (row * cols + cols - 1);
+		}
+		
+		for(Direction dir : Direction.allDirections) {
+			int d = dir.getIndex();
+			shift[d] = dir.getDr() * cols + dir.getDc();
+			shiftMask[d] = full;
+			// moving east must not land on the first column, and vice versa:
+			if(dir.getDc() > 0) shiftMask[d] &= ~firstCol;
+			if(dir.getDc() < 0) shiftMask[d] &= ~lastCol;
+		}
+		
+		fillSteps = Math.max(0, Math.max(rows, cols) - 3);
+		
+		adjacent = new long[size];
+		neighbour = new int[size][8];
+		ray = new int[size][8][];
+		rayMask = new long[size][8];
+		type = new BoardCell.Type[size];
+		
+		long corners = 0L, sides = 0L;
+		
+		for(int row = 0; row < rows; row++) {
+			for(int col = 0; col < cols; col++) {
+				int i = index(row, col);
+				
+				for(Direction dir : Direction.allDirections) {
+					int d = dir.getIndex();
+					int n = 0, r = row + dir.getDr(), c = col + dir.getDc();
+					while(boundCheck(r, c)) {
+						n++;
+						r += dir.getDr();
+						c += dir.getDc();
+					}
+					
+					ray[i][d] = new int[n];
+					for(int k = 0; k < n; k++) {
+						int j = index(row + (k + 1) * dir.getDr(), col + (k + 1) * dir.getDc());
+						ray[i][d][k] = j;
+						rayMask[i][d] |= 1L << j;
+					}
+					
+					neighbour[i][d] = (n > 0) ? ray[i][d][0] : -1;
+					if(n > 0) adjacent[i] |= 1L << neighbour[i][d];
+				}
+				
+				type[i] = computeType(row, col);
+				typeMask[type[i].ordinal()] |= 1L << i;
+				
+				if((row == 0 || row == rows - 1) && (col == 0 || col == cols - 1))
+					corners |= 1L << i;
+				if(row == 0 || row == rows - 1 || col == 0 || col == cols - 1)
+					sides |= 1L << i;
+			}
+		}
+		
+		cornerMask = corners;
+		sideMask = sides;
+		
+		for(int a = 0; a < 4; a++) {
+			int d1 = axis[a][0].getIndex(), d2 = axis[a][1].getIndex();
+			int numLines = 0;
+			long l[] = new long[size];
+			for(int i = 0; i < size; i++) {
+				// each line starts from the cell missing the d2 neighbour:
+				if(neighbour[i][d2] < 0)
+					l[numLines++] = (1L << i) | rayMask[i][d1];
+				if(neighbour[i][d1] < 0 || neighbour[i][d2] < 0)
+					lineEnds[a] |= 1L << i;
+			}
+			lines[a] = new long[numLines];
+			System.arraycopy(l, 0, lines[a], 0, numLines);
+		}
+		
+		transform = new int[8][size];
+		inverseTransform = new int[8][size];
+		int p[] = new int[2], q[] = new int[2];
+		for(int t = 0; t < 8; t++) {
+			for(p[0] = 0; p[0] < rows; p[0]++) {
+				for(p[1] = 0; p[1] < cols; p[1]++) {
+					if(rows == cols)
+						Board.transformPoint(rows, p, q, t);
+					else
+						Board.transformPoint(rows, p, q, 0);
+					transform[t][index(p[0], p[1])] = index(q[0], q[1]);
+					inverseTransform[t][index(q[0], q[1])] = index(p[0], p[1]);
+				}
+			}
+		}
+	}
+	
+	private BoardCell.Type computeType(int row, int col) {
+		int r1 = rows - 1, c1 = cols - 1;
+		if((row == 0 || row == r1) && (col == 0 || col == c1))
+			return BoardCell.Type.CORNER;
+		if((row == 1 || row == r1 - 1) && (col == 1 || col == c1 - 1))
+			return BoardCell.Type.X;
+		if(row > 0 && row < r1 && col > 0 && col < c1)
+			return BoardCell.Type.NONE;
+		if(row == 1 || row == r1 - 1 || col == 1 || col == c1 - 1)
+			return BoardCell.Type.C;
+		if(row == 2 || row == r1 - 2 || col == 2 || col == c1 - 2)
+			return BoardCell.Type.A;
+		if(row == 3 || row == r1 - 3 || col == 3 || col == c1 - 3)
+			return BoardCell.Type.B;
+		
+		return BoardCell.Type.NONE; // side cells far from corners on big boards
+	}
+	
+	public int getNumRows() {
+		return rows;
+	}
+	
+	public int getNumColumns() {
+		return cols;
+	}
+	
+	/**
+	 * @return The number of cells
+	 */
+	public int getSize() {
+		return size;
+	}
+	
+	public int index(int row, int col) {
+		return row * cols + col;
+	}
+	
+	public boolean boundCheck(int row, int col) {
+		return row >= 0 && row < rows && col >= 0 && col < cols;
+	}
+	
+	/**
+	 * @return The mask of all the cells of the board
+	 */
+	public long getFullMask() {
+		return full;
+	}
+	
+	/**
+	 * @param index
+	 * @return The mask of cells adjacent to the cell at index
+	 */
+	public long getAdjacentMask(int index) {
+		return adjacent[index];
+	}
+	
+	/**
+	 * @param index
+	 * @param direction
+	 * @return The index of the adjacent cell in the given direction,
+	 *         or -1 if it is outside the board
+	 */
+	public int getNeighbour(int index, int direction) {
+		return neighbour[index][direction];
+	}
+	
+	/**
+	 * @param index
+	 * @param direction
+	 * @return The indices of the cells from index (excluded) to the edge
+	 *         of the board in the given direction (must not be modified)
+	 */
+	public int[] getRay(int index, int direction) {
+		return ray[index][direction];
+	}
+	
+	/**
+	 * @param index
+	 * @param direction
+	 * @return The mask of the cells of <code>getRay(index, direction)</code>
+	 */
+	public long getRayMask(int index, int direction) {
+		return rayMask[index][direction];
+	}
+	
+	public BoardCell.Type getType(int index) {
+		return type[index];
+	}
+	
+	/**
+	 * @param type
+	 * @return The mask of the cells of given type
+	 */
+	public long getTypeMask(BoardCell.Type type) {
+		return typeMask[type.ordinal()];
+	}
+	
+	public long getCornerMask() {
+		return cornerMask;
+	}
+	
+	public long getSideMask() {
+		return sideMask;
+	}
+	
+	/**
+	 * @param t The transform (see <code>Board.transformPoint</code>)
+	 * @return The map from the index of a cell p to the index of T(p)
+	 *         (must not be modified)
+	 */
+	public int[] getTransform(int t) {
+		return transform[t];
+	}
+	
+	/**
+	 * @param t The transform (see <code>Board.transformPoint</code>)
+	 * @return The map from a cell index to the index of the cell of the
+	 *         transformed board holding the same piece, i.e. the inverse
+	 *         of <code>getTransform(t)</code> (must not be modified)
+	 */
+	public int[] getInverseTransform(int t) {
+		return inverseTransform[t];
+	}
+	
+	/**
+	 * Transform a mask of cells: bit p of the result is bit T(p) of mask, so
+	 * that transforming the piece masks gives the board filled by
+	 * <code>Board.copyFrom(b, t)</code>.
+	 *
+	 * The 8x8 board uses byte swaps and delta swaps (a few dozen instructions);
+	 * other sizes use the index maps.
+	 *
+	 * @param mask
+	 * @param t The transform (see <code>Board.transformPoint</code>)
+	 * @return The transformed mask
+	 */
+	public long transform(long mask, int t) {
+		if(rows == 8 && cols == 8) {
+			switch(t) {
+			case 0: return mask;
+			case 1: return flipHorizontal(flipDiagonal(mask));
+			case 2: return Long.reverse(mask);
+			case 3: return Long.reverseBytes(flipDiagonal(mask));
+			case 4: return flipHorizontal(mask);
+			case 5: return Long.reverse(flipDiagonal(mask));
+			case 6: return Long.reverseBytes(mask);
+			case 7: return flipDiagonal(mask);
+			}
+		}
+		
+		int map[] = inverseTransform[t];
+		long r = 0L;
+		for(long m = mask; m != 0; m &= m - 1)
+			r |= 1L << map[Long.numberOfTrailingZeros(m)];
+		return r;
+	}
+	
+	/**
+	 * Mirror an 8x8 mask left to right (reverse the bits of each row)
+	 */
+	private static long flipHorizontal(long x) {
+		x = ((x >>> 1) & 0x5555555555555555L) | ((x & 0x5555555555555555L) << 1);
+		x = ((x >>> 2) & 0x3333333333333333L) | ((x & 0x3333333333333333L) << 2);
+		x = ((x >>> 4) & 0x0F0F0F0F0F0F0F0FL) | ((x & 0x0F0F0F0F0F0F0F0FL) << 4);
+		return x;
+	}
+	
+	/**
+	 * Transpose an 8x8 mask (swap rows and columns)
+	 */
+	private static long flipDiagonal(long x) {
+		long t;
+		t = 0x0F0F0F0F00000000L & (x ^ (x << 28));
+		x ^= t ^ (t >>> 28);
+		t = 0x3333000033330000L & (x ^ (x << 14));
+		x ^= t ^ (t >>> 14);
+		t = 0x5500550055005500L & (x ^ (x << 7));
+		x ^= t ^ (t >>> 7);
+		return x;
+	}
+	
+	/**
+	 * Compare two transforms of a position: the transformed boards are
+	 * compared cell by cell in row major order, where an empty cell is
+	 * less than a black piece which is less than a white piece.
+	 *
+	 * @param black
+	 * @param white
+	 * @param t1
+	 * @param t2
+	 * @return A negative, zero or positive value as the first transformed
+	 *         board is less than, equal or greater than the second
+	 */
+	public int compareTransform(long black, long white, int t1, int t2) {
+		return compare(transform(black, t1), transform(white, t1), transform(black, t2), transform(white, t2));
+	}
+	
+	private static int compare(long black1, long white1, long black2, long white2) {
+		long diff = (black1 ^ black2) | (white1 ^ white2);
+		if(diff == 0) return 0;
+		// the first differing cell decides:
+		long bit = diff & -diff;
+		int v1 = ((black1 & bit) != 0) ? 1 : ((white1 & bit) != 0) ? 2 : 0;
+		int v2 = ((black2 & bit) != 0) ? 1 : ((white2 & bit) != 0) ? 2 : 0;
+		return v1 - v2;
+	}
+	
+	/**
+	 * Find the canonical form of a position, i.e. the greatest of its transforms
+	 * (according to <code>compareTransform</code>; the first one in case of ties).
+	 * All the symmetric positions have the same canonical form.
+	 *
+	 * @param black
+	 * @param white
+	 * @return The transform giving the canonical form (always 0 for non
+	 *         square boards)
+	 */
+	public int getPreferredTransform(long black, long white) {
+		if(rows != cols) return 0;
+		
+		int preferred = 0;
+		long bestBlack = black, bestWhite = white;
+		
+		for(int t = 1; t < 8; t++) {
+			long b = transform(black, t), w = transform(white, t);
+			if(compare(bestBlack, bestWhite, b, w) < 0) {
+				preferred = t;
+				bestBlack = b;
+				bestWhite = w;
+			}
+		}
+		
+		return preferred;
+	}
+	
+	/**
+	 * Shift all the bits of x one step in the given direction
+	 *
+	 * @param x
+	 * @param d Direction index
+	 * @return The shifted mask
+	 */
+	public long shift(long x, int d) {
+		int s = shift[d];
+		return (s > 0 ? x << s : x >>> -s) & shiftMask[d];
+	}
+	
+	/**
+	 * @param x
+	 * @return The mask of the cells adjacent to cells in x (in any direction)
+	 */
+	public long neighbours(long x) {
+		long r = 0L;
+		for(int d = 0; d < 8; d++)
+			r |= shift(x, d);
+		return r;
+	}
+}
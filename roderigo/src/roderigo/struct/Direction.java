@@ -11,14 +11,23 @@ import java.util.Collection;
  *
  */
 public class Direction {
+	private int index;
 	private int dr;
 	private int dc;
 	
-	private Direction(int dr, int dc) {
+	private Direction(int index, int dr, int dc) {
+		this.index = index;
 		this.dr = dr;
 		this.dc = dc;
 	}
 	
+	/**
+	 * @return The position of this direction in <code>allDirections</code>
+	 */
+	public int getIndex() {
+		return index;
+	}
+	
 	public int getDr() {
 		return dr;
 	}
@@ -31,14 +40,14 @@ public class Direction {
 		return String.format("<%d,%d>", dr, dc);
 	}
 	
-	public static final Direction N = new Direction(-1, 0);
-	public static final Direction S = new Direction(1, 0);
-	public static final Direction E = new Direction(0, 1);
-	public static final Direction W = new Direction(0, -1);
-	public static final Direction NE = new Direction(-1, 1);
-	public static final Direction NW = new Direction(-1, -1);
-	public static final Direction SE = new Direction(1, 1);
-	public static final Direction SW = new Direction(1, -1);
+	public static final Direction N = new Direction(0, -1, 0);
+	public static final Direction S = new Direction(1, 1, 0);
+	public static final Direction E = new Direction(2, 0, 1);
+	public static final Direction W = new Direction(3, 0, -1);
+	public static final Direction NE = new Direction(4, -1, 1);
+	public static final Direction NW = new Direction(5, -1, -1);
+	public static final Direction SE = new Direction(6, 1, 1);
+	public static final Direction SW = new Direction(7, 1, -1);
 	
 	public static final Collection<Direction> allDirections = Arrays.asList(new Direction[] {N, S, E, W, NE, NW, SE, SW});
 	public static final Collection<Direction> cardinalDirections = Arrays.asList(new Direction[] {N, S, E, W});
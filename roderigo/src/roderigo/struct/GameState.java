@@ -16,6 +16,40 @@ public class GameState {
 	
 	private int depth;
 	
+	/**
+	 * Record of a move made with <code>makeMove</code>, holding
+	 * what is needed to restore the previous state with <code>unmakeMove</code>.
+	 *
+	 * Records can be reused (e.g. one per search ply) to avoid allocation.
+	 */
+	public static final class Undo {
+		private int index;
+		private long flipped;
+		private BoardCellColor turn;
+		private int depth;
+		
+		/**
+		 * @return The bit index of the cell where the piece was placed
+		 */
+		public int getIndex() {
+			return index;
+		}
+		
+		/**
+		 * @return The mask of flipped pieces
+		 */
+		public long getFlipped() {
+			return flipped;
+		}
+		
+		/**
+		 * @return The player who made the move
+		 */
+		public BoardCellColor getColor() {
+			return turn;
+		}
+	}
+	
 	public GameState() {
 		newGame(); // creates a new Board object as well
 	}
@@ -26,6 +60,19 @@ public class GameState {
 		depth = s.getDepth();
 	}
 	
+	/**
+	 * Construct a game state from its components
+	 *
+	 * @param board The board (not copied)
+	 * @param turn The player to move, or <code>null</code> if the game is finished
+	 * @param depth The number of moves made so far
+	 */
+	public GameState(Board board, BoardCellColor turn, int depth) {
+		this.board = board;
+		this.turn = turn;
+		this.depth = depth;
+	}
+	
 	public Board getBoard() {
 		return board;
 	}
@@ -41,20 +88,54 @@ public class GameState {
 	}
 
 	public boolean move(BoardCell c) {
-		if(!board.makeMove(c, turn))
+		return makeMove(c.index, null);
+	}
+	
+	/**
+	 * Make a move in place for the current player, and advance the turn
+	 * (taking care of passes and of the end of the game).
+	 *
+	 * @param c The move
+	 * @return The undo record, or <code>null</code> if the move is not valid
+	 */
+	public Undo makeMove(BoardCell c) {
+		Undo undo = new Undo();
+		return makeMove(c.index, undo) ? undo : null;
+	}
+	
+	/**
+	 * Make a move in place for the current player, and advance the turn
+	 * (taking care of passes and of the end of the game).
+	 *
+	 * @param index The bit index of the cell
+	 * @param undo The record to fill for <code>unmakeMove</code> (can be null)
+	 * @return <code>true</code> if the move was valid
+	 */
+	public boolean makeMove(int index, Undo undo) {
+		BoardCellColor color = turn;
+		
+		long flipped = board.makeMove(index, color);
+		if(flipped == 0)
 			return false;
 		
+		if(undo != null) {
+			undo.index = index;
+			undo.flipped = flipped;
+			undo.turn = color;
+			undo.depth = depth;
+		}
+		
 		switchTurn();
 		
-		if(board.getAllPieces().size() == board.getNumRows() * board.getNumColumns()) {
+		if(board.getPiecesMask(null) == 0) {
 			// the board is full
 			// means the game is finished
 			turn = null;
 			return true;
-		} else if(board.getValidMoves(turn).isEmpty()) {
+		} else if(board.getValidMovesMask(turn) == 0) {
 			// current player has to pass
 			switchTurn();
-			if(board.getValidMoves(turn).isEmpty()) {
+			if(board.getValidMovesMask(turn) == 0) {
 				// also the other player has to pass
 				// means the game is finished
 				turn = null;
@@ -67,10 +148,56 @@ public class GameState {
 		return true;
 	}
 	
+	/**
+	 * Take back a move made with <code>makeMove</code>, restoring
+	 * exactly the previous board, turn and depth.
+	 *
+	 * @param undo The record filled by <code>makeMove</code>
+	 */
+	public void unmakeMove(Undo undo) {
+		board.unmakeMove(undo.index, undo.turn, undo.flipped);
+		turn = undo.turn;
+		depth = undo.depth;
+	}
+	
+	/**
+	 * Low level setter, used by <code>GameStateCodec</code>
+	 *
+	 * @param turn
+	 * @param depth
+	 */
+	void set(BoardCellColor turn, int depth) {
+		this.turn = turn;
+		this.depth = depth;
+	}
+	
 	public void switchTurn() {
 		turn = turn.opposite();
 	}
 	
+	/**
+	 * @return The zobrist hash of this state (board and player to move)
+	 */
+	public long getHash() {
+		return board.getHash() ^ Zobrist.turn(turn);
+	}
+	
+	/**
+	 * @return The zobrist hash of this state, which is the same for
+	 *         all the symmetric positions (see <code>Board.getSymmetricHash()</code>)
+	 */
+	public long getSymmetricHash() {
+		return board.getSymmetricHash() ^ Zobrist.turn(turn);
+	}
+	
+	/**
+	 * @return The zobrist hash of the canonical form of this state, which is
+	 *         the same for all the symmetric positions (see <code>Board.getCanonicalHash()</code>)
+	 */
+	public long getCanonicalHash() {
+		return board.getCanonicalHash() ^ Zobrist.turn(turn);
+	}
+	
 	public int getDepth() {
 		return depth;
 	}
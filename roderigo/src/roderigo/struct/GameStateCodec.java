@@ -0,0 +1,173 @@
+package roderigo.struct;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Fixed width binary encoding of a <code>GameState</code>, used to store
+ * large numbers of positions (books, test suites, training sets).
+ *
+ * Each record is <code>RECORD_SIZE</code> bytes, big endian:
+ * <pre>
+ *  0  long  black pieces mask (bit row * cols + col, see BitBoard)
+ *  8  long  white pieces mask
+ * 16  byte  number of rows
+ * 17  byte  number of columns
+ * 18  byte  flags: bits 0-1 player to move (BoardCellColor.toInt),
+ *                  bit 2 game over, bit 3 ply present
+ * 19  byte  reserved (zero)
+ * 20  int   ply (number of moves made so far; zero if not present)
+ * </pre>
+ *
+ * Records are read from and written to buffers in place, without
+ * intermediate copies.
+ *
+ * @author Federico Ferri
+ *
+ */
+public final class GameStateCodec {
+	public static final int RECORD_SIZE = 24;
+	
+	private static final int FLAG_TURN = 0x03;
+	private static final int FLAG_GAME_OVER = 0x04;
+	private static final int FLAG_PLY = 0x08;
+	
+	private GameStateCodec() {}
+	
+	/**
+	 * Write a state at the current position of the buffer (which is advanced)
+	 *
+	 * @param s
+	 * @param buf
+	 * @param withPly Whether to store the ply counter
+	 */
+	public static void encode(GameState s, ByteBuffer buf, boolean withPly) {
+		Board b = s.getBoard();
+		int flags = BoardCellColor.toInt(s.getTurn());
+		if(s.getTurn() == null) flags |= FLAG_GAME_OVER;
+		if(withPly) flags |= FLAG_PLY;
+		
+		ByteOrder order = buf.order();
+		buf.order(ByteOrder.BIG_ENDIAN);
+		try {
+			buf.putLong(b.getPiecesMask(BoardCellColor.BLACK));
+			buf.putLong(b.getPiecesMask(BoardCellColor.WHITE));
+			buf.put((byte) b.getNumRows());
+			buf.put((byte) b.getNumColumns());
+			buf.put((byte) flags);
+			buf.put((byte) 0);
+			buf.putInt(withPly ? s.getDepth() : 0);
+		} finally {
+			buf.order(order);
+		}
+	}
+	
+	public static void encode(GameState s, ByteBuffer buf) {
+		encode(s, buf, true);
+	}
+	
+	/**
+	 * Read a state from the current position of the buffer (which is advanced)
+	 *
+	 * @param buf
+	 * @return The decoded state
+	 */
+	public static GameState decode(ByteBuffer buf) {
+		return decode(buf, null);
+	}
+	
+	/**
+	 * Read a state from the current position of the buffer (which is advanced),
+	 * reusing the given state if it has a board of the same size
+	 *
+	 * @param buf
+	 * @param s The state to overwrite (can be null)
+	 * @return The decoded state (<code>s</code>, if it was reused)
+	 */
+	public static GameState decode(ByteBuffer buf, GameState s) {
+		long black, white;
+		int rows, cols, flags, ply;
+		
+		ByteOrder order = buf.order();
+		buf.order(ByteOrder.BIG_ENDIAN);
+		try {
+			black = buf.getLong();
+			white = buf.getLong();
+			rows = buf.get() & 0xFF;
+			cols = buf.get() & 0xFF;
+			flags = buf.get() & 0xFF;
+			buf.get();
+			ply = buf.getInt();
+		} finally {
+			buf.order(order);
+		}
+		
+		BoardCellColor turn = ((flags & FLAG_GAME_OVER) != 0) ? null : BoardCellColor.fromInt(flags & FLAG_TURN);
+		if(turn == null && (flags & FLAG_GAME_OVER) == 0)
+			throw new RuntimeException("Invalid game state record: no player to move");
+		int depth = ((flags & FLAG_PLY) != 0) ? ply : 0;
+		
+		if(s == null || s.getBoard().getNumRows() != rows || s.getBoard().getNumColumns() != cols) {
+			Board b = new Board(rows, cols);
+			b.setPiecesMask(black, white);
+			return new GameState(b, turn, depth);
+		}
+		
+		s.getBoard().setPiecesMask(black, white);
+		s.set(turn, depth);
+		return s;
+	}
+	
+	/**
+	 * Encode the given states to a byte array
+	 *
+	 * @param states
+	 * @return The records, one after the other
+	 */
+	public static byte[] encode(GameState states[]) {
+		byte data[] = new byte[states.length * RECORD_SIZE];
+		ByteBuffer buf = ByteBuffer.wrap(data);
+		for(GameState s : states)
+			encode(s, buf);
+		return data;
+	}
+	
+	/**
+	 * Decode all the records of a byte array
+	 *
+	 * @param data
+	 * @return The decoded states
+	 */
+	public static GameState[] decode(byte data[]) {
+		if(data.length % RECORD_SIZE != 0)
+			throw new RuntimeException("Invalid game state data length " + data.length);
+		
+		GameState states[] = new GameState[data.length / RECORD_SIZE];
+		ByteBuffer buf = ByteBuffer.wrap(data);
+		for(int i = 0; i < states.length; i++)
+			states[i] = decode(buf);
+		return states;
+	}
+	
+	/**
+	 * Write a state into a byte array
+	 *
+	 * @param s
+	 * @param data
+	 * @param offset The byte offset of the record
+	 */
+	public static void encode(GameState s, byte data[], int offset) {
+		encode(s, ByteBuffer.wrap(data, offset, RECORD_SIZE));
+	}
+	
+	/**
+	 * Read a state from a byte array
+	 *
+	 * @param data
+	 * @param offset The byte offset of the record
+	 * @return The decoded state
+	 */
+	public static GameState decode(byte data[], int offset) {
+		return decode(ByteBuffer.wrap(data, offset, RECORD_SIZE));
+	}
+}
@@ -0,0 +1,101 @@
+package roderigo.struct;
+
+import java.util.Random;
+
+/**
+ * Zobrist keys, used to compute a 64 bit hash of a position.
+ *
+ * The hash of a board is the xor of one key per piece (depending on
+ * its color and on its cell index); the hash of a game state also
+ * includes a key for the player to move.
+ *
+ * Keys are generated from a fixed seed, so hashes are the same across
+ * runs and can be stored on disk (e.g. in opening books).
+ *
+ * @author Federico Ferri
+ *
+ */
+public final class Zobrist {
+	private static final long SEED = 0x5eed0f0e11011L;
+	
+	private static final long piece[][] = new long[2][BitBoard.MAX_CELLS];
+	private static final long flip[] = new long[BitBoard.MAX_CELLS];
+	private static final long whiteToMove;
+	private static final long gameOver;
+	
+	static {
+		Random rnd = new Random(SEED);
+		for(int c = 0; c < 2; c++)
+			for(int i = 0; i < BitBoard.MAX_CELLS; i++)
+				piece[c][i] = rnd.nextLong();
+		for(int i = 0; i < BitBoard.MAX_CELLS; i++)
+			flip[i] = piece[0][i] ^ piece[1][i];
+		whiteToMove = rnd.nextLong();
+		gameOver = rnd.nextLong();
+	}
+	
+	private Zobrist() {}
+	
+	/**
+	 * @param color
+	 * @param index
+	 * @return The key of a piece of given color at given cell index,
+	 *         or zero if color is null
+	 */
+	public static long piece(BoardCellColor color, int index) {
+		if(color == BoardCellColor.BLACK) return piece[0][index];
+		if(color == BoardCellColor.WHITE) return piece[1][index];
+		return 0L;
+	}
+	
+	/**
+	 * @param index
+	 * @return The value to xor into the hash when flipping the piece at index
+	 */
+	public static long flip(int index) {
+		return flip[index];
+	}
+	
+	/**
+	 * @param flipped Mask of flipped pieces
+	 * @return The value to xor into the hash when flipping the given pieces
+	 */
+	public static long flips(long flipped) {
+		long h = 0L;
+		while(flipped != 0) {
+			h ^= flip[Long.numberOfTrailingZeros(flipped)];
+			flipped &= flipped - 1;
+		}
+		return h;
+	}
+	
+	/**
+	 * @param turn The player to move (null if the game is finished)
+	 * @return The key of the side to move
+	 */
+	public static long turn(BoardCellColor turn) {
+		if(turn == BoardCellColor.WHITE) return whiteToMove;
+		if(turn == null) return gameOver;
+		return 0L;
+	}
+	
+	/**
+	 * Compute the hash of the given pieces from scratch
+	 *
+	 * @param black
+	 * @param white
+	 * @return The hash
+	 */
+	public static long hash(long black, long white) {
+		long h = 0L;
+		while(black != 0) {
+			h ^= piece[0][Long.numberOfTrailingZeros(black)];
+			black &= black - 1;
+		}
+		while(white != 0) {
+			h ^= piece[1][Long.numberOfTrailingZeros(white)];
+			white &= white - 1;
+		}
+		return h;
+	}
+}
@@ -0,0 +1,159 @@
+package roderigo.tests;
+
+import java.util.Random;
+
+import roderigo.ai.AbortException;
+import roderigo.ai.AlphaBetaPlayer;
+import roderigo.ai.genetic.Genome;
+import roderigo.struct.BoardCell;
+import roderigo.struct.BoardCellColor;
+import roderigo.struct.GameState;
+
+public class AlphaBetaPlayerTest {
+	public static void main(String[] args) throws Exception {
+		Random rnd = new Random(0xdeadbeef);
+		
+		for(int i = 0; i < 30; i++) {
+			GameState s = TestPositions.randomPosition(new GameState(), 10 + rnd.nextInt(45), rnd);
+			for(int depth = 1; depth <= 4; depth++)
+				testMinimax(s, depth, Genome.DEFAULT);
+			testMinimax(s, 3, Genome.EVO8b);
+		}
+		
+		for(int i = 0; i < 20; i++)
+			testBudget(TestPositions.randomPosition(new GameState(), 20 + rnd.nextInt(35), rnd));
+		
+		testStop(true);
+		testStop(false);
+		testCancelBeforeStart();
+		testHardTimeLimit();
+		
+		System.out.println("All tests OK.");
+	}
+	
+	private static boolean isValidMove(GameState s, BoardCell move) {
+		return move != null && (s.getBoard().getValidMovesMask(s.getTurn()) & (1L << move.index)) != 0;
+	}
+	
+	/**
+	 * The value of a fixed depth search must be the minimax value,
+	 * and its best move must lead to that value
+	 */
+	private static void testMinimax(GameState s, int depth, Genome genome) throws Exception {
+		if(s.getTurn() == null) return;
+		
+		AlphaBetaPlayer player = new AlphaBetaPlayer(genome);
+		player.setUsingDynamicDepth(false);
+		player.setMaxDepth(depth);
+		player.setSolverEmpties(0);
+		
+		BoardCellColor root = s.getTurn();
+		int expected = TestPositions.minimax(s, root, depth, genome);
+		if(player.getValue(new GameState(s)) != expected)
+			throw new RuntimeException("Failed minimax value test (depth " + depth + "):\n" + s.getBoard());
+		
+		BoardCell move = player.getBestMove(s);
+		if(!isValidMove(s, move))
+			throw new RuntimeException("Failed minimax valid move test:\n" + s.getBoard());
+		GameState child = new GameState(s);
+		child.makeMove(move.index, null);
+		if(TestPositions.minimax(child, root, depth - 1, genome) != expected)
+			throw new RuntimeException("Failed minimax best move test (depth " + depth + "):\n" + s.getBoard());
+	}
+	
+	/**
+	 * A search with a node budget (and no depth limit) must stop
+	 * shortly after the budget, and return a valid move
+	 */
+	private static void testBudget(GameState s) throws Exception {
+		if(s.getTurn() == null) return;
+		
+		final long nodeLimit = 20000;
+		AlphaBetaPlayer player = new AlphaBetaPlayer(Genome.DEFAULT);
+		player.setUsingDynamicDepth(true);
+		player.setBudget(0, nodeLimit);
+		
+		BoardCell move = player.getBestMove(s);
+		if(!isValidMove(s, move))
+			throw new RuntimeException("Failed budget valid move test:\n" + s.getBoard());
+		if(player.getNodeCount() > 2 * nodeLimit)
+			throw new RuntimeException("Failed budget test: " + player.getNodeCount() + " nodes\n" + s.getBoard());
+	}
+	
+	/**
+	 * A player searching the initial position without limits
+	 * (until stopped)
+	 */
+	private static AlphaBetaPlayer unlimitedPlayer() {
+		AlphaBetaPlayer player = new AlphaBetaPlayer(Genome.DEFAULT);
+		player.setUsingDynamicDepth(false);
+		player.setMaxDepth(60);
+		return player;
+	}
+	
+	/**
+	 * Stop a search without limits: abort must throw AbortException,
+	 * cancel must return a valid move
+	 */
+	private static void testStop(final boolean abort) throws Exception {
+		final AlphaBetaPlayer player = unlimitedPlayer();
+		Thread stopper = new Thread() {
+			@Override public void run() {
+				try {
+					Thread.sleep(200);
+				} catch(InterruptedException e) {
+				}
+				if(abort) player.abort();
+				else player.cancel();
+			}
+		};
+		stopper.start();
+		
+		GameState s = new GameState();
+		try {
+			BoardCell move = player.getBestMove(s);
+			if(abort || !isValidMove(s, move))
+				throw new RuntimeException("Failed cancel test");
+		} catch(AbortException e) {
+			if(!abort)
+				throw new RuntimeException("Failed abort test");
+		}
+		stopper.join();
+	}
+	
+	/**
+	 * A cancel made before the search stops the next search only
+	 * (unless forgotten by clearCancel)
+	 */
+	private static void testCancelBeforeStart() throws Exception {
+		AlphaBetaPlayer player = unlimitedPlayer();
+		GameState s = new GameState();
+		
+		player.cancel();
+		if(!isValidMove(s, player.getBestMove(s)))
+			throw new RuntimeException("Failed cancel before start test");
+		
+		player.setMaxDepth(3);
+		player.cancel();
+		player.clearCancel();
+		player.getBestMove(s);
+		if(player.getCompletedDepth() != 3)
+			throw new RuntimeException("Failed clear cancel test");
+	}
+	
+	/**
+	 * The hard time limit must stop a search without other limits,
+	 * returning a valid move
+	 */
+	private static void testHardTimeLimit() throws Exception {
+		AlphaBetaPlayer player = unlimitedPlayer();
+		player.setHardTimeLimit(200);
+		
+		GameState s = new GameState();
+		long start = System.currentTimeMillis();
+		BoardCell move = player.getBestMove(s);
+		long time = System.currentTimeMillis() - start;
+		if(!isValidMove(s, move) || time > 2000)
+			throw new RuntimeException("Failed hard time limit test: " + time + " ms");
+	}
+}
@@ -0,0 +1,123 @@
+package roderigo.tests;
+
+import java.util.List;
+import java.util.Random;
+
+import roderigo.ai.AlphaBetaPlayer;
+import roderigo.ai.Analyzer;
+import roderigo.ai.genetic.Genome;
+import roderigo.struct.GameState;
+
+public class AnalyzerTest {
+	public static void main(String[] args) throws Exception {
+		Random rnd = new Random(0xdeadbeef);
+		
+		for(int i = 0; i < 20; i++) {
+			GameState s = TestPositions.randomPosition(new GameState(), 16 + rnd.nextInt(40), rnd);
+			testDepth(s, 1 + rnd.nextInt(4));
+		}
+		for(int i = 0; i < 20; i++)
+			testSolved(TestPositions.randomPosition(new GameState(), 2 + rnd.nextInt(10), rnd));
+		for(int i = 0; i < 10; i++)
+			testGenomeChange(TestPositions.randomPosition(new GameState(), 16 + rnd.nextInt(40), rnd), 1 + rnd.nextInt(3));
+		
+		System.out.println("All tests OK.");
+	}
+	
+	private static List<Analyzer.Line> analyze(AlphaBetaPlayer player, GameState s, int depth) throws Exception {
+		Analyzer analyzer = new Analyzer(player);
+		analyzer.setThreads(2);
+		analyzer.setMaxDepth(depth);
+		try {
+			List<Analyzer.Line> lines = analyzer.analyze(s);
+			if(lines.size() != Long.bitCount(s.getBoard().getValidMovesMask(s.getTurn())))
+				throw new RuntimeException("Failed analysis moves test:\n" + s.getBoard());
+			for(int i = 1; i < lines.size(); i++)
+				if(lines.get(i).getScore() > lines.get(i - 1).getScore())
+					throw new RuntimeException("Failed analysis order test:\n" + s.getBoard());
+			return lines;
+		} finally {
+			analyzer.shutdown();
+		}
+	}
+	
+	/**
+	 * The score of each move at a fixed depth must be the minimax value
+	 * of the position after the move. The evaluation is computed for the
+	 * player to move at the root (it is not symmetric), so the reference
+	 * is a plain minimax from the root player's point of view.
+	 */
+	private static void testDepth(GameState s, int depth) throws Exception {
+		if(s.getTurn() == null) return;
+		
+		AlphaBetaPlayer player = new AlphaBetaPlayer(Genome.DEFAULT);
+		player.setSolverEmpties(0);
+		
+		for(Analyzer.Line line : analyze(player, s, depth)) {
+			GameState child = new GameState(s);
+			child.makeMove(line.getMove(), null);
+			if(line.getScore() != TestPositions.minimax(child, s.getTurn(), depth - 1, Genome.DEFAULT))
+				throw new RuntimeException("Failed analysis score test (depth " + depth + "):\n" + s.getBoard());
+		}
+	}
+	
+	/**
+	 * An analyzer used again after the genome of its player is changed
+	 * must score the moves with the new genome, and must not leave values
+	 * of the old genome in the player's transposition table
+	 */
+	private static void testGenomeChange(GameState s, int depth) throws Exception {
+		if(s.getTurn() == null) return;
+		
+		AlphaBetaPlayer player = new AlphaBetaPlayer(Genome.DEFAULT);
+		player.setSolverEmpties(0);
+		Analyzer analyzer = new Analyzer(player);
+		analyzer.setThreads(2);
+		analyzer.setMaxDepth(depth);
+		try {
+			analyzer.analyze(s);
+			player.setGenome(Genome.EVO8b);
+			for(Analyzer.Line line : analyzer.analyze(s)) {
+				GameState child = new GameState(s);
+				child.makeMove(line.getMove(), null);
+				if(line.getScore() != TestPositions.minimax(child, s.getTurn(), depth - 1, Genome.EVO8b))
+					throw new RuntimeException("Failed analysis genome change test (depth " + depth + "):\n" + s.getBoard());
+			}
+		} finally {
+			analyzer.shutdown();
+		}
+		
+		player.setUsingDynamicDepth(false);
+		player.setMaxDepth(depth);
+		if(player.getValue(new GameState(s)) != TestPositions.minimax(s, s.getTurn(), depth, Genome.EVO8b))
+			throw new RuntimeException("Failed player value after analysis test (depth " + depth + "):\n" + s.getBoard());
+	}
+	
+	/**
+	 * Near the end of the game the moves are solved: the score of each move
+	 * must be the value found by a full AlphaBetaPlayer search of the
+	 * position after the move (which solves it as well)
+	 */
+	private static void testSolved(GameState s) throws Exception {
+		if(s.getTurn() == null) return;
+		
+		AlphaBetaPlayer player = new AlphaBetaPlayer(Genome.DEFAULT);
+		
+		for(Analyzer.Line line : analyze(player, s, AlphaBetaPlayer.DEFAULT_DEPTH)) {
+			if(!line.isExact())
+				throw new RuntimeException("Failed analysis solve test:\n" + s.getBoard());
+			
+			GameState child = new GameState(s);
+			child.makeMove(line.getMove(), null);
+			int expected;
+			if(child.getTurn() == null) {
+				expected = TestPositions.minimax(child, s.getTurn(), 0, Genome.DEFAULT);
+			} else {
+				int v = new AlphaBetaPlayer(Genome.DEFAULT).getValue(child);
+				expected = (child.getTurn() == s.getTurn()) ? v : -v;
+			}
+			if(line.getScore() != expected)
+				throw new RuntimeException("Failed analysis solved score test:\n" + s.getBoard());
+		}
+	}
+}
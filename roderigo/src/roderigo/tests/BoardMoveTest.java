@@ -0,0 +1,175 @@
+package roderigo.tests;
+
+import java.util.Random;
+
+import roderigo.struct.BitBoard;
+import roderigo.struct.Board;
+import roderigo.struct.BoardCell;
+import roderigo.struct.BoardCellColor;
+import roderigo.struct.BoardCellSet;
+import roderigo.struct.Direction;
+
+public class BoardMoveTest {
+	public static void main(String[] args) throws Exception {
+		Random rnd = new Random(0xdeadbeef ^ System.currentTimeMillis());
+		
+		testGeometry(new Board(8, 8));
+		testGeometry(new Board(6, 6));
+		testGeometry(new Board(4, 6));
+		
+		for(int game = 0; game < 200; game++)
+			testRandomGame(new Board(8, 8), rnd);
+		for(int game = 0; game < 50; game++)
+			testRandomGame(new Board(6, 6), rnd);
+		for(int game = 0; game < 50; game++)
+			testRandomGame(new Board(4, 6), rnd);
+		
+		System.out.println("All tests OK.");
+	}
+	
+	/**
+	 * Play a random game, checking valid moves and flipped pieces
+	 * against a cell-by-cell reference implementation of the rules
+	 */
+	private static void testRandomGame(Board b, Random rnd) throws Exception {
+		BoardCellColor turn = BoardCellColor.BLACK;
+		int passes = 0;
+		long stableB = 0L, stableW = 0L;
+		
+		while(passes < 2) {
+			// stable pieces found so far must not have been flipped:
+			if((stableB & ~b.getPiecesMask(BoardCellColor.BLACK)) != 0 || (stableW & ~b.getPiecesMask(BoardCellColor.WHITE)) != 0)
+				throw new RuntimeException("Failed stable pieces test");
+			stableB |= b.getBitBoard().getStable(BoardCellColor.BLACK);
+			stableW |= b.getBitBoard().getStable(BoardCellColor.WHITE);
+			
+			BitBoard fresh = new BitBoard(b.getNumRows(), b.getNumColumns());
+			fresh.set(b.getPiecesMask(BoardCellColor.BLACK), b.getPiecesMask(BoardCellColor.WHITE));
+			if(fresh.getStable() != b.getBitBoard().getStable() || b.getStablePieces().getMask() != fresh.getStable())
+				throw new RuntimeException("Failed stable pieces cache test");
+			
+			
+			BoardCellSet moves = b.getValidMoves(turn);
+			
+			for(BoardCell cell : b.getAllCells()) {
+				boolean expected = referenceFlips(b, cell, turn) > 0;
+				if(moves.contains(cell) != expected || cell.isValidMove(turn) != expected)
+					throw new RuntimeException("Failed valid move test at " + cell);
+			}
+			
+			if(moves.isEmpty()) {
+				passes++;
+			} else {
+				passes = 0;
+				
+				BoardCell move = null;
+				int k = rnd.nextInt(moves.size());
+				for(BoardCell cell : moves)
+					if(k-- == 0) move = cell;
+				
+				Board expected = b.clone();
+				referenceMove(expected, expected.conformCell(move), turn);
+				
+				Board before = b.clone();
+				long flipped = b.makeMove(move.index, turn);
+				b.unmakeMove(move.index, turn, flipped);
+				if(!b.equals(before) || b.getHash() != before.getHash() || !sameFringeAndBorder(b, before))
+					throw new RuntimeException("Failed unmake move test at " + move);
+				
+				if(!b.makeMove(move, turn) || !b.equals(expected))
+					throw new RuntimeException("Failed make move test at " + move);
+				if(b.getHash() != expected.getHash() || b.getSymmetricHash() != expected.getSymmetricHash())
+					throw new RuntimeException("Failed hash test at " + move);
+				if(!sameFringeAndBorder(b, expected) || !referenceFringeAndBorder(b))
+					throw new RuntimeException("Failed fringe/border test at " + move);
+			}
+			
+			turn = turn.opposite();
+		}
+	}
+	
+	/**
+	 * Check the precomputed geometry against row/column arithmetic
+	 */
+	private static void testGeometry(Board b) throws Exception {
+		for(BoardCell cell : b.getAllCells()) {
+			for(Direction dir : Direction.allDirections) {
+				int r = cell.row + dir.getDr(), c = cell.col + dir.getDc();
+				if(cell.adjacentCell(dir) != b.get(r, c))
+					throw new RuntimeException("Failed neighbour test at " + cell);
+				
+				int ray[] = b.getGeometry().getRay(cell.index, dir.getIndex());
+				int k = 0;
+				for(; b.boundCheck(r, c); r += dir.getDr(), c += dir.getDc(), k++) {
+					if(k >= ray.length || ray[k] != b.get(r, c).index)
+						throw new RuntimeException("Failed ray test at " + cell);
+					if(b.between(cell, b.get(r, c)).size() != k)
+						throw new RuntimeException("Failed between test at " + cell);
+				}
+				if(k != ray.length)
+					throw new RuntimeException("Failed ray test at " + cell);
+			}
+			
+			if(cell.isCorner() != ((cell.row == 0 || cell.row == b.getNumRows() - 1)
+					&& (cell.col == 0 || cell.col == b.getNumColumns() - 1)))
+				throw new RuntimeException("Failed corner test at " + cell);
+			if(!b.getCellsOfType(cell.getType()).contains(cell))
+				throw new RuntimeException("Failed type test at " + cell);
+		}
+		
+		if(b.getCellsOfType(BoardCell.Type.CORNER).size() != 4)
+			throw new RuntimeException("Failed type test");
+		if(b.getNumRows() == 8 && b.getNumColumns() == 8 && (b.getCellsOfType(BoardCell.Type.X).size() != 4
+				|| b.getCellsOfType(BoardCell.Type.C).size() != 8 || b.getCellsOfType(BoardCell.Type.NONE).size() != 32))
+			throw new RuntimeException("Failed type test");
+	}
+	
+	private static boolean sameFringeAndBorder(Board a, Board b) {
+		return a.getBitBoard().getFringe() == b.getBitBoard().getFringe()
+			&& a.getBitBoard().getBorder() == b.getBitBoard().getBorder();
+	}
+	
+	private static boolean referenceFringeAndBorder(Board b) {
+		for(BoardCell cell : b.getAllCells()) {
+			boolean emptyNeighbour = false, pieceNeighbour = false;
+			for(BoardCell a : cell.adjacentCells()) {
+				if(a.isClear()) emptyNeighbour = true;
+				else pieceNeighbour = true;
+			}
+			if(b.getFringe().contains(cell) != (cell.isClear() && pieceNeighbour))
+				return false;
+			if(b.getBorder().contains(cell) != (!cell.isClear() && emptyNeighbour))
+				return false;
+		}
+		return true;
+	}
+	
+	private static int referenceFlips(Board b, BoardCell cell, BoardCellColor color) {
+		if(!cell.isClear()) return 0;
+		
+		int n = 0;
+		for(Direction dir : Direction.allDirections) {
+			int k = 0;
+			BoardCell c = cell.adjacentCell(dir);
+			while(c != null && c.getColor() == color.opposite()) {
+				k++;
+				c = c.adjacentCell(dir);
+			}
+			if(c != null && c.getColor() == color)
+				n += k;
+		}
+		return n;
+	}
+	
+	private static void referenceMove(Board b, BoardCell cell, BoardCellColor color) {
+		for(Direction dir : Direction.allDirections) {
+			BoardCell c = cell.adjacentCell(dir);
+			while(c != null && c.getColor() == color.opposite())
+				c = c.adjacentCell(dir);
+			if(c == null || c.getColor() != color) continue;
+			for(c = cell.adjacentCell(dir); c.getColor() != color; c = c.adjacentCell(dir))
+				c.flipColor();
+		}
+		cell.setColor(color);
+	}
+}
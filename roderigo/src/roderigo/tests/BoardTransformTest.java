@@ -4,11 +4,17 @@ import java.io.PrintWriter;
 import java.util.Random;
 
 import roderigo.struct.Board;
+import roderigo.struct.BoardCell;
+import roderigo.struct.BoardCellColor;
+import roderigo.struct.Zobrist;
 
 public class BoardTransformTest {
 	public static void main(String[] args) throws Exception {
 		testBoardTransform();
 		testInvariance();
+		testHash();
+		testPreferredTransform(8);
+		testPreferredTransform(6);
 		System.out.println("All tests OK.");
 	}
 	
@@ -137,4 +143,86 @@ public class BoardTransformTest {
 				throw new RuntimeException("Failed invariance test");
 		}
 	}
+	
+	private static void testHash() throws Exception {
+		final int n = 8;
+		
+		Random rnd = new Random(0xdeadbeef ^ System.currentTimeMillis());
+		
+		// make a random board
+		Board b = new Board(n, n);
+		for(int rand = 100; rand > 0; rand--) {
+			b.get(rnd.nextInt(n), rnd.nextInt(n)).setWhite();
+			b.get(rnd.nextInt(n), rnd.nextInt(n)).setBlack();
+			b.get(rnd.nextInt(n), rnd.nextInt(n)).clear();
+			BoardCell c = b.get(rnd.nextInt(n), rnd.nextInt(n));
+			if(!c.isClear()) c.flipColor();
+		}
+		
+		if(b.getHash() != Zobrist.hash(b.getPiecesMask(BoardCellColor.BLACK), b.getPiecesMask(BoardCellColor.WHITE)))
+			throw new RuntimeException("Failed incremental hash test");
+		
+		for(int t = 0; t < 8; t++) {
+			Board bt = new Board(n, n);
+			bt.copyFrom(b, t);
+			if(bt.getHash() != b.getHash(t))
+				throw new RuntimeException("Failed transform hash test T" + t);
+			if(bt.getSymmetricHash() != b.getSymmetricHash())
+				throw new RuntimeException("Failed symmetric hash test T" + t);
+		}
+	}
+	
+	private static void testPreferredTransform(int n) throws Exception {
+		Random rnd = new Random(0xdeadbeef ^ System.currentTimeMillis());
+		
+		for(int test = 0; test < 200; test++) {
+			Board b = new Board(n, n);
+			if(test % 10 == 0) {
+				// symmetric positions: the initial one, or an empty board
+				if(test % 20 == 0) b.clearAll();
+			} else {
+				for(int rand = rnd.nextInt(2 * n * n); rand > 0; rand--) {
+					BoardCell c = b.get(rnd.nextInt(n), rnd.nextInt(n));
+					switch(rnd.nextInt(3)) {
+					case 0: c.setWhite(); break;
+					case 1: c.setBlack(); break;
+					case 2: c.clear(); break;
+					}
+				}
+			}
+			
+			// reference: compare the transformed boards cell by cell
+			Board bt[] = new Board[8];
+			for(int t = 0; t < 8; t++) {
+				bt[t] = new Board(n, n);
+				bt[t].copyFrom(b, t);
+			}
+			
+			int expected = 0;
+			for(int t = 1; t < 8; t++)
+				if(compareCells(bt[expected], bt[t]) < 0)
+					expected = t;
+			
+			if(b.getPreferredTransform() != expected)
+				throw new RuntimeException("Failed preferred transform test");
+			if(b.getCanonicalHash() != bt[expected].getHash())
+				throw new RuntimeException("Failed canonical hash test");
+			
+			for(int t1 = 0; t1 < 8; t1++)
+				for(int t2 = 0; t2 < 8; t2++)
+					if(Integer.signum(b.compareTransform(t1, t2)) != compareCells(bt[t1], bt[t2]))
+						throw new RuntimeException("Failed compareTransform test");
+		}
+	}
+	
+	private static int compareCells(Board b1, Board b2) {
+		for(int row = 0; row < b1.getNumRows(); row++) {
+			for(int col = 0; col < b1.getNumColumns(); col++) {
+				int i1 = b1.get(row, col).isBlack() ? 1 : (b1.get(row, col).isWhite() ? 2 : 0);
+				int i2 = b2.get(row, col).isBlack() ? 1 : (b2.get(row, col).isWhite() ? 2 : 0);
+				if(i1 != i2) return (i1 < i2) ? -1 : 1;
+			}
+		}
+		return 0;
+	}
 }
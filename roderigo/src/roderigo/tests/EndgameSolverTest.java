@@ -0,0 +1,67 @@
+package roderigo.tests;
+
+import java.util.Random;
+
+import roderigo.ai.EndgameSolver;
+import roderigo.struct.BitBoard;
+import roderigo.struct.Board;
+import roderigo.struct.BoardCellColor;
+import roderigo.struct.GameState;
+
+public class EndgameSolverTest {
+	public static void main(String[] args) throws Exception {
+		long seed = 0xdeadbeef ^ System.currentTimeMillis();
+		Random rnd = new Random(seed);
+		
+		try {
+			for(int i = 0; i < 300; i++)
+				testPosition(TestPositions.randomPosition(new GameState(), 1 + rnd.nextInt(10), rnd));
+			for(int i = 0; i < 100; i++)
+				testPosition(TestPositions.randomPosition(new GameState(new Board(6, 6), BoardCellColor.BLACK, 0), 1 + rnd.nextInt(10), rnd));
+		} catch(RuntimeException e) {
+			throw new RuntimeException(e.getMessage() + " (random seed: " + seed + ")", e);
+		}
+		
+		System.out.println("All tests OK.");
+	}
+	
+	private static void testPosition(GameState s) throws Exception {
+		if(s.getTurn() == null) return;
+		
+		Board b = s.getBoard();
+		BitBoard bits = b.getBitBoard();
+		long own = b.getPiecesMask(s.getTurn()), opp = b.getPiecesMask(s.getTurn().opposite());
+		int expected = reference(bits, own, opp, false);
+		
+		EndgameSolver solver = new EndgameSolver(b.getGeometry());
+		if(solver.solve(own, opp, EndgameSolver.EXACT) != expected)
+			throw new RuntimeException("Failed exact solve test:\n" + b);
+		
+		int move = solver.getBestMove();
+		long f = bits.flips(move, own, opp);
+		if(f == 0 || -reference(bits, opp & ~f, own | f | (1L << move), false) != expected)
+			throw new RuntimeException("Failed best move test:\n" + b);
+		
+		if(Integer.signum(solver.solve(own, opp, EndgameSolver.WIN_LOSS_DRAW)) != Integer.signum(expected))
+			throw new RuntimeException("Failed win/loss/draw solve test:\n" + b);
+	}
+	
+	/**
+	 * Plain negamax search to the end of the game
+	 */
+	private static int reference(BitBoard bits, long own, long opp, boolean passed) {
+		long moves = bits.validMoves(own, opp);
+		if(moves == 0) {
+			if(passed) return Long.bitCount(own) - Long.bitCount(opp);
+			return -reference(bits, opp, own, true);
+		}
+		
+		int v = Integer.MIN_VALUE;
+		for(; moves != 0; moves &= moves - 1) {
+			int move = Long.numberOfTrailingZeros(moves);
+			long f = bits.flips(move, own, opp);
+			v = Math.max(v, -reference(bits, opp & ~f, own | f | (1L << move), false));
+		}
+		return v;
+	}
+}
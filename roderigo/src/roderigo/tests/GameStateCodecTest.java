@@ -0,0 +1,107 @@
+package roderigo.tests;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import roderigo.struct.Board;
+import roderigo.struct.BoardCellColor;
+import roderigo.struct.GameState;
+import roderigo.struct.GameStateCodec;
+
+public class GameStateCodecTest {
+	public static void main(String[] args) throws Exception {
+		Random rnd = new Random(0xdeadbeef ^ System.currentTimeMillis());
+		
+		List<GameState> states = new ArrayList<GameState>();
+		for(int game = 0; game < 20; game++) {
+			GameState s = new GameState();
+			states.add(new GameState(s));
+			while(s.getTurn() != null) {
+				long moves = s.getBoard().getValidMovesMask(s.getTurn());
+				for(int k = rnd.nextInt(Long.bitCount(moves)); k > 0; k--)
+					moves &= moves - 1;
+				s.makeMove(Long.numberOfTrailingZeros(moves), null);
+				states.add(new GameState(s));
+			}
+		}
+		
+		testRoundTrip(states.toArray(new GameState[states.size()]));
+		testLayout();
+		
+		System.out.println("All tests OK.");
+	}
+	
+	private static void testRoundTrip(GameState states[]) throws Exception {
+		// bulk:
+		byte data[] = GameStateCodec.encode(states);
+		GameState decoded[] = GameStateCodec.decode(data);
+		if(decoded.length != states.length)
+			throw new RuntimeException("Failed bulk round trip test");
+		for(int i = 0; i < states.length; i++)
+			check(states[i], decoded[i], true);
+		
+		// single records, in a little endian direct buffer, reusing the state:
+		ByteBuffer buf = ByteBuffer.allocateDirect(states.length * GameStateCodec.RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		for(GameState s : states)
+			GameStateCodec.encode(s, buf, false);
+		buf.flip();
+		GameState reused = new GameState();
+		for(GameState s : states) {
+			if(GameStateCodec.decode(buf, reused) != reused)
+				throw new RuntimeException("Failed state reuse test");
+			check(s, reused, false);
+		}
+		if(buf.order() != ByteOrder.LITTLE_ENDIAN || buf.hasRemaining())
+			throw new RuntimeException("Failed buffer test");
+		
+		// records are the same whatever the buffer:
+		for(int i = 0; i < states.length; i++) {
+			byte record[] = new byte[GameStateCodec.RECORD_SIZE];
+			GameStateCodec.encode(states[i], record, 0);
+			for(int j = 0; j < record.length; j++)
+				if(record[j] != data[i * GameStateCodec.RECORD_SIZE + j])
+					throw new RuntimeException("Failed record test");
+			check(states[i], GameStateCodec.decode(data, i * GameStateCodec.RECORD_SIZE), true);
+		}
+	}
+	
+	private static void check(GameState expected, GameState actual, boolean withPly) {
+		Board b = actual.getBoard();
+		if(!b.equals(expected.getBoard()) || b.getHash() != expected.getBoard().getHash())
+			throw new RuntimeException("Failed board round trip test");
+		if(actual.getTurn() != expected.getTurn())
+			throw new RuntimeException("Failed turn round trip test");
+		if(actual.getDepth() != (withPly ? expected.getDepth() : 0))
+			throw new RuntimeException("Failed ply round trip test");
+		if(!new Board(b.toIntArray()).equals(b))
+			throw new RuntimeException("Failed int array round trip test");
+	}
+	
+	private static void testLayout() throws Exception {
+		Board b = new Board(new int[][] {
+			{1, 0, 0, 0},
+			{0, 2, 0, 0},
+			{0, 0, 0, 0},
+			{0, 0, 0, 2}
+		});
+		byte data[] = new byte[GameStateCodec.RECORD_SIZE];
+		GameStateCodec.encode(new GameState(b, BoardCellColor.WHITE, 7), data, 0);
+		
+		byte expected[] = {
+			0, 0, 0, 0, 0, 0, 0, 0x01,                  // black: a1
+			0, 0, 0, 0, 0, 0, (byte) 0x80, 0x20,        // white: b2, d4
+			4, 4, 0x0A, 0,                              // 4x4, white to move, ply present
+			0, 0, 0, 7                                  // ply
+		};
+		for(int i = 0; i < expected.length; i++)
+			if(data[i] != expected[i])
+				throw new RuntimeException("Failed layout test at byte " + i);
+		
+		GameStateCodec.encode(new GameState(b, null, 7), data, 0);
+		if(data[18] != 0x0C || GameStateCodec.decode(data, 0).getTurn() != null)
+			throw new RuntimeException("Failed game over layout test");
+	}
+}
@@ -0,0 +1,67 @@
+package roderigo.tests;
+
+import java.util.Random;
+
+import roderigo.ai.BoardEvaluation;
+import roderigo.ai.IncrementalEvaluation;
+import roderigo.ai.genetic.Genome;
+import roderigo.struct.Board;
+import roderigo.struct.BoardCellColor;
+import roderigo.struct.GameState;
+
+public class IncrementalEvaluationTest {
+	private static final Genome genomes[] = {Genome.DEFAULT, Genome.EVO1, Genome.EVO8b};
+	
+	public static void main(String[] args) throws Exception {
+		long seed = 0xdeadbeef ^ System.currentTimeMillis();
+		Random rnd = new Random(seed);
+		
+		try {
+			for(int i = 0; i < 100; i++)
+				testGame(new GameState(), rnd);
+			for(int i = 0; i < 50; i++)
+				testGame(new GameState(new Board(6, 6), BoardCellColor.BLACK, 0), rnd);
+		} catch(RuntimeException e) {
+			throw new RuntimeException(e.getMessage() + " (random seed: " + seed + ")", e);
+		}
+		
+		System.out.println("All tests OK.");
+	}
+	
+	/**
+	 * Play a random game, checking the evaluation after each move,
+	 * then unmake all the moves, checking it again
+	 */
+	private static void testGame(GameState s, Random rnd) throws Exception {
+		IncrementalEvaluation eval = new IncrementalEvaluation(s.getBoard().getGeometry(), Genome.DEFAULT);
+		eval.reset(s.getBoard());
+		check(s, eval);
+		
+		GameState.Undo undo[] = new GameState.Undo[s.getBoard().getGeometry().getSize()];
+		int n = 0;
+		while(s.getTurn() != null) {
+			long moves = s.getBoard().getValidMovesMask(s.getTurn());
+			for(int k = rnd.nextInt(Long.bitCount(moves)); k > 0; k--)
+				moves &= moves - 1;
+			undo[n] = new GameState.Undo();
+			s.makeMove(Long.numberOfTrailingZeros(moves), undo[n]);
+			eval.makeMove(undo[n++]);
+			check(s, eval);
+		}
+		
+		while(n > 0) {
+			s.unmakeMove(undo[--n]);
+			eval.unmakeMove(undo[n]);
+			check(s, eval);
+		}
+	}
+	
+	private static void check(GameState s, IncrementalEvaluation eval) throws Exception {
+		for(BoardCellColor color : new BoardCellColor[] {BoardCellColor.BLACK, BoardCellColor.WHITE}) {
+			BoardEvaluation reference = new BoardEvaluation(s.getBoard().clone(), color);
+			for(Genome g : genomes)
+				if(eval.getValue(color, g) != reference.getValue(g))
+					throw new RuntimeException("Failed evaluation test");
+		}
+	}
+}
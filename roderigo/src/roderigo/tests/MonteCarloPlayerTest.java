@@ -0,0 +1,136 @@
+package roderigo.tests;
+
+import java.util.Random;
+
+import roderigo.ai.AbortException;
+import roderigo.ai.MonteCarloPlayer;
+import roderigo.struct.Board;
+import roderigo.struct.BoardCell;
+import roderigo.struct.BoardCellColor;
+import roderigo.struct.GameState;
+
+public class MonteCarloPlayerTest {
+	public static void main(String[] args) throws Exception {
+		long seed = 0xdeadbeef ^ System.currentTimeMillis();
+		Random rnd = new Random(seed);
+		
+		try {
+			MonteCarloPlayer player = new MonteCarloPlayer();
+			player.setThreads(2);
+			player.setBudget(0, 2000);
+			for(int i = 0; i < 4; i++)
+				testGame(player, new GameState(), rnd);
+			testGame(player, new GameState(new Board(6, 6), BoardCellColor.BLACK, 0), rnd);
+			
+			// a full tree must not stop the search:
+			player.setTreeSizeBits(8);
+			testGame(player, new GameState(), rnd);
+			
+			player.setBudget(0, 0);
+			player.setTreeSizeBits(MonteCarloPlayer.DEFAULT_TREE_SIZE_BITS);
+			testStop(player, true);
+			testStop(player, false);
+			testHardTimeLimit(player);
+			testNoMoves(player, rnd);
+		} catch(RuntimeException e) {
+			throw new RuntimeException(e.getMessage() + " (random seed: " + seed + ")", e);
+		}
+		
+		System.out.println("All tests OK.");
+	}
+	
+	/**
+	 * Play a game, the player against random moves, checking the player's moves
+	 */
+	private static void testGame(MonteCarloPlayer player, GameState s, Random rnd) throws Exception {
+		BoardCellColor color = rnd.nextBoolean() ? BoardCellColor.BLACK : BoardCellColor.WHITE;
+		
+		while(s.getTurn() != null) {
+			long moves = s.getBoard().getValidMovesMask(s.getTurn());
+			if(s.getTurn() == color) {
+				BoardCell move = player.getBestMove(s);
+				if(move == null || (moves & (1L << move.index)) == 0)
+					throw new RuntimeException("Failed valid move test");
+				s.makeMove(move.index, null);
+			} else {
+				for(int k = rnd.nextInt(Long.bitCount(moves)); k > 0; k--)
+					moves &= moves - 1;
+				s.makeMove(Long.numberOfTrailingZeros(moves), null);
+			}
+		}
+	}
+	
+	/**
+	 * Stop a search without budget: abort must throw AbortException,
+	 * cancel must return a valid move
+	 */
+	private static void testStop(final MonteCarloPlayer player, final boolean abort) throws Exception {
+		player.setBudget(0, Long.MAX_VALUE);
+		Thread stopper = new Thread() {
+			@Override public void run() {
+				try {
+					Thread.sleep(100);
+				} catch(InterruptedException e) {
+				}
+				if(abort) player.abort();
+				else player.cancel();
+			}
+		};
+		stopper.start();
+		
+		GameState s = new GameState();
+		try {
+			BoardCell move = player.getBestMove(s);
+			if(abort || (s.getBoard().getValidMovesMask(s.getTurn()) & (1L << move.index)) == 0)
+				throw new RuntimeException("Failed cancel test");
+		} catch(AbortException e) {
+			if(!abort)
+				throw new RuntimeException("Failed abort test");
+		}
+		stopper.join();
+	}
+	
+	/**
+	 * The hard time limit must stop a search without budget, and also
+	 * the default number of playouts, returning a valid move
+	 */
+	private static void testHardTimeLimit(MonteCarloPlayer player) throws Exception {
+		GameState s = new GameState();
+		
+		player.setBudget(0, Long.MAX_VALUE);
+		player.setHardTimeLimit(200);
+		long start = System.currentTimeMillis();
+		BoardCell move = player.getBestMove(s);
+		long time = System.currentTimeMillis() - start;
+		if(move == null || (s.getBoard().getValidMovesMask(s.getTurn()) & (1L << move.index)) == 0 || time > 2000)
+			throw new RuntimeException("Failed hard time limit test: " + time + " ms");
+		
+		player.setBudget(0, 0);
+		player.setHardTimeLimit(1);
+		player.getBestMove(s);
+		if(player.getPlayoutCount() >= MonteCarloPlayer.DEFAULT_PLAYOUTS)
+			throw new RuntimeException("Failed hard time limit with default playouts test");
+		
+		player.setHardTimeLimit(0);
+	}
+	
+	/**
+	 * Without valid moves (game over, or a player who has to pass) no move
+	 * must be returned, and the next search must not be affected
+	 */
+	private static void testNoMoves(MonteCarloPlayer player, Random rnd) throws Exception {
+		GameState s = TestPositions.randomPosition(new GameState(), 0, rnd);
+		player.setBudget(0, 2000);
+		
+		if(player.getBestMove(s) != null)
+			throw new RuntimeException("Failed game over test:\n" + s.getBoard());
+		for(BoardCellColor color : new BoardCellColor[] {BoardCellColor.BLACK, BoardCellColor.WHITE})
+			if(player.getBestMove(new GameState(s.getBoard(), color, 0)) != null)
+				throw new RuntimeException("Failed no valid moves test:\n" + s.getBoard());
+		
+		s = new GameState();
+		BoardCell move = player.getBestMove(s);
+		if(move == null || (s.getBoard().getValidMovesMask(s.getTurn()) & (1L << move.index)) == 0)
+			throw new RuntimeException("Failed valid move after no moves test");
+	}
+}
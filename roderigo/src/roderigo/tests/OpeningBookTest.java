@@ -0,0 +1,84 @@
+package roderigo.tests;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+
+import roderigo.ai.OpeningBook;
+import roderigo.struct.Board;
+import roderigo.struct.GameState;
+
+public class OpeningBookTest {
+	public static void main(String[] args) throws Exception {
+		long seed = 0xdeadbeef ^ System.currentTimeMillis();
+		Random rnd = new Random(seed);
+		
+		try {
+			test(rnd);
+		} catch(RuntimeException e) {
+			throw new RuntimeException(e.getMessage() + " (random seed: " + seed + ")", e);
+		}
+		
+		System.out.println("All tests OK.");
+	}
+	
+	private static void test(Random rnd) throws Exception {
+		OpeningBook book = new OpeningBook(8, 8);
+		GameState states[] = new GameState[200];
+		for(int i = 0; i < states.length; i++) {
+			states[i] = TestPositions.randomPosition(new GameState(), 60 - rnd.nextInt(20), rnd);
+			
+			// skip ended games, and positions symmetric to previous ones:
+			if(states[i].getTurn() == null || book.contains(states[i])) {
+				states[i] = null;
+				continue;
+			}
+			
+			long moves = states[i].getBoard().getValidMovesMask(states[i].getTurn());
+			for(int score = 0; moves != 0; moves &= moves - 1, score++)
+				book.put(states[i], Long.numberOfTrailingZeros(moves), score);
+		}
+		
+		testLookup(book, states);
+		
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		book.write(out);
+		OpeningBook loaded = OpeningBook.read(new ByteArrayInputStream(out.toByteArray()));
+		if(loaded.size() != book.size())
+			throw new RuntimeException("Failed save/load test");
+		testLookup(loaded, states);
+		
+		if(book.contains(new GameState(new Board(6, 6), null, 0)) || book.getBestMove(new GameState(new Board(6, 6), null, 0)) >= 0)
+			throw new RuntimeException("Failed board size test");
+	}
+	
+	/**
+	 * Every transform of a state must give the transformed best move
+	 * (the last valid move, which has the highest score)
+	 */
+	private static void testLookup(OpeningBook book, GameState states[]) throws Exception {
+		for(GameState s : states) {
+			if(s == null) continue;
+			
+			long moves = s.getBoard().getValidMovesMask(s.getTurn());
+			int best = 63 - Long.numberOfLeadingZeros(moves);
+			
+			for(int t = 0; t < 8; t++) {
+				Board b = new Board(8, 8);
+				b.copyFrom(s.getBoard(), t);
+				GameState ts = new GameState(b, s.getTurn(), 0);
+				
+				int move = book.getBestMove(ts);
+				if(!book.contains(ts) || move < 0)
+					throw new RuntimeException("Failed lookup test (transform " + t + "):\n" + s.getBoard());
+				
+				// the best move, or a move equivalent by a symmetry of the position:
+				if(move != b.getGeometry().getInverseTransform(t)[best]
+						&& book.getScore(ts, move) != book.getScore(s, best))
+					throw new RuntimeException("Failed transformed move test (transform " + t + "):\n" + s.getBoard());
+				if((b.getValidMovesMask(ts.getTurn()) & (1L << move)) == 0)
+					throw new RuntimeException("Failed valid move test (transform " + t + "):\n" + s.getBoard());
+			}
+		}
+	}
+}
@@ -0,0 +1,76 @@
+package roderigo.tests;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+
+import roderigo.ai.PatternEvaluation;
+import roderigo.ai.PatternTables;
+import roderigo.struct.BoardCellColor;
+import roderigo.struct.GameState;
+
+public class PatternEvaluationTest {
+	public static void main(String[] args) throws Exception {
+		long seed = 0xdeadbeef ^ System.currentTimeMillis();
+		Random rnd = new Random(seed);
+		
+		try {
+			PatternTables tables = new PatternTables();
+			for(int phase = 0; phase < PatternTables.PHASES; phase++)
+				for(int i = 0; i < PatternTables.getTableSize(); i++)
+					tables.set(phase, i, rnd.nextInt(2001) - 1000);
+			
+			for(int i = 0; i < 100; i++)
+				testGame(tables, rnd);
+			
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			tables.write(out);
+			PatternTables loaded = PatternTables.read(new ByteArrayInputStream(out.toByteArray()));
+			for(int phase = 0; phase < PatternTables.PHASES; phase++)
+				for(int i = 0; i < PatternTables.getTableSize(); i++)
+					if(loaded.get(phase, i) != tables.get(phase, i))
+						throw new RuntimeException("Failed save/load test");
+		} catch(RuntimeException e) {
+			throw new RuntimeException(e.getMessage() + " (random seed: " + seed + ")", e);
+		}
+		
+		System.out.println("All tests OK.");
+	}
+	
+	/**
+	 * Play a random game, checking the incremental evaluation against
+	 * the evaluation from scratch after each move, then unmake all the
+	 * moves, checking it again
+	 */
+	private static void testGame(PatternTables tables, Random rnd) throws Exception {
+		GameState s = new GameState();
+		PatternEvaluation eval = new PatternEvaluation(tables);
+		eval.reset(s.getBoard());
+		check(s, eval, tables);
+		
+		GameState.Undo undo[] = new GameState.Undo[64];
+		int n = 0;
+		while(s.getTurn() != null) {
+			long moves = s.getBoard().getValidMovesMask(s.getTurn());
+			for(int k = rnd.nextInt(Long.bitCount(moves)); k > 0; k--)
+				moves &= moves - 1;
+			undo[n] = new GameState.Undo();
+			s.makeMove(Long.numberOfTrailingZeros(moves), undo[n]);
+			eval.makeMove(undo[n++]);
+			check(s, eval, tables);
+		}
+		
+		while(n > 0) {
+			s.unmakeMove(undo[--n]);
+			eval.unmakeMove(undo[n]);
+			check(s, eval, tables);
+		}
+	}
+	
+	private static void check(GameState s, PatternEvaluation eval, PatternTables tables) throws Exception {
+		long black = s.getBoard().getPiecesMask(BoardCellColor.BLACK), white = s.getBoard().getPiecesMask(BoardCellColor.WHITE);
+		int v = tables.evaluate(black, white);
+		if(eval.getValue(BoardCellColor.BLACK) != v || eval.getValue(BoardCellColor.WHITE) != -v)
+			throw new RuntimeException("Failed incremental evaluation test");
+	}
+}
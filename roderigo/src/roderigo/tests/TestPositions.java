@@ -0,0 +1,49 @@
+package roderigo.tests;
+
+import java.util.Random;
+
+import roderigo.ai.BoardEvaluation;
+import roderigo.ai.genetic.Genome;
+import roderigo.struct.Board;
+import roderigo.struct.BoardCellColor;
+import roderigo.struct.GameState;
+
+/**
+ * Positions and reference searches shared by the tests
+ */
+public class TestPositions {
+	/**
+	 * Play random moves until the given number of empty cells is left
+	 * (or the game ends)
+	 */
+	public static GameState randomPosition(GameState s, int empty, Random rnd) {
+		while(s.getTurn() != null && Long.bitCount(s.getBoard().getPiecesMask(null)) > empty) {
+			long moves = s.getBoard().getValidMovesMask(s.getTurn());
+			for(int k = rnd.nextInt(Long.bitCount(moves)); k > 0; k--)
+				moves &= moves - 1;
+			s.makeMove(Long.numberOfTrailingZeros(moves), null);
+		}
+		return s;
+	}
+	
+	/**
+	 * Plain minimax search, with values for the root player
+	 */
+	public static int minimax(GameState s, BoardCellColor root, int depth, Genome genome) {
+		Board b = s.getBoard();
+		if(s.getTurn() == null)
+			return BoardEvaluation.GAME_END_WEIGHT * (Long.bitCount(b.getPiecesMask(root)) - Long.bitCount(b.getPiecesMask(root.opposite())));
+		if(depth == 0)
+			return new BoardEvaluation(b.clone(), root).getValue(genome);
+		
+		boolean max = s.getTurn() == root;
+		int best = max ? Integer.MIN_VALUE : Integer.MAX_VALUE;
+		for(long moves = b.getValidMovesMask(s.getTurn()); moves != 0; moves &= moves - 1) {
+			GameState child = new GameState(s);
+			child.makeMove(Long.numberOfTrailingZeros(moves), null);
+			int v = minimax(child, root, depth - 1, genome);
+			best = max ? Math.max(best, v) : Math.min(best, v);
+		}
+		return best;
+	}
+}